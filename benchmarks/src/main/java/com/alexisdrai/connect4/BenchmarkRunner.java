@@ -0,0 +1,33 @@
+package com.alexisdrai.connect4;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/*
+ * runs the benchmarks with the gc profiler on, so that allocation rates show up next to throughputs,
+ * and keeps the results in benchmarks.json to compare against after each engine change
+ *
+ * bots look their moves up in ./book.bin when there is one, so run these from a directory without it to measure
+ * their search alone
+ *
+ * usage: java -jar benchmarks/target/benchmarks.jar [any JMH option, e.g. a benchmark name regex]
+ */
+public class BenchmarkRunner
+{
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException
+    {
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result("benchmarks.json")
+                .build();
+        new Runner(options).run();
+    }
+}
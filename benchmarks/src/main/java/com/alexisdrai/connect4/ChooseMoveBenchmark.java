@@ -0,0 +1,44 @@
+package com.alexisdrai.connect4;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+// a bot picking its move with a cold transposition table, as in the first move it makes in a game
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ChooseMoveBenchmark
+{
+    @Param({Phases.OPENING, Phases.EARLY, Phases.MIDDLE, Phases.END})
+    public String moves;
+
+    private C4Game game;
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        this.game = Phases.game(this.moves, Phases.FIXED_DEPTH_BOT, Phases.FIXED_DEPTH_BOT);
+    }
+
+    // so that no search benefits from the previous one
+    @Setup(Level.Invocation)
+    public void forget()
+    {
+        this.game.getCurrentPlayer().forget();
+    }
+
+    @Benchmark
+    public int chooseMove()
+    {
+        return this.game.getCurrentPlayer().chooseMove();
+    }
+}
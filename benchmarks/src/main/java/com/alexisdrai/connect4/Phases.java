@@ -0,0 +1,27 @@
+package com.alexisdrai.connect4;
+
+// positions shared by the benchmarks, as the 1-based columns played to reach them
+final class Phases
+{
+    static final String OPENING = "";
+    static final String EARLY   = "43443";
+    static final String MIDDLE  = "2224441366";
+    static final String END     = "3642756176227637211322113551";
+
+    // bots that always look exactly that deep, however long it takes
+    static final String FIXED_DEPTH_BOT = "bot 10 999999ms";
+
+    private Phases()
+    {
+    }
+
+    static C4Game game(String moves, String... names)
+    {
+        C4Game game = new C4Game(names);
+        for (int i = 0; i < moves.length(); i++)
+        {
+            game.play(moves.charAt(i) - '1');
+        }
+        return game;
+    }
+}
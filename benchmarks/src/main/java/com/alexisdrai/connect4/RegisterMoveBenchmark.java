@@ -0,0 +1,32 @@
+package com.alexisdrai.connect4;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+// plays out the moves of Phases.END on a fresh game, so each operation is one registerMove()
+@State(Scope.Thread)
+public class RegisterMoveBenchmark
+{
+    private int[] columns;
+
+    @Setup
+    public void setUp()
+    {
+        this.columns = Phases.END.chars().map(c -> c - '1').toArray();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(28)
+    public C4Game registerMoves()
+    {
+        C4Game game = new C4Game("alice", "bob");
+        for (int column : this.columns)
+        {
+            game.registerMove(column);
+        }
+        return game;
+    }
+}
@@ -0,0 +1,45 @@
+package com.alexisdrai.connect4;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+// saving and loading a game halfway through, to and from a temporary file
+@State(Scope.Thread)
+public class SaveLoadBenchmark
+{
+    private C4Game game;
+    private Path   path;
+
+    @Setup
+    public void setUp() throws IOException
+    {
+        this.game = Phases.game(Phases.MIDDLE, "alice", "bob");
+        this.path = Files.createTempFile("connect4-bench", ".save");
+        this.game.save(this.path);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException
+    {
+        Files.deleteIfExists(this.path);
+    }
+
+    @Benchmark
+    public void save() throws IOException
+    {
+        this.game.save(this.path);
+    }
+
+    @Benchmark
+    public C4Game load() throws IOException
+    {
+        return C4Game.load(this.path);
+    }
+}
@@ -0,0 +1,46 @@
+package com.alexisdrai.connect4;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+// what registerMove() relies on for check(), and the bot's depth-1 heuristic for aligned(), over every column
+@State(Scope.Thread)
+public class WinDetectionBenchmark
+{
+    @Param({Phases.OPENING, Phases.EARLY, Phases.MIDDLE, Phases.END})
+    public String moves;
+
+    private Position position;
+
+    @Setup
+    public void setUp()
+    {
+        this.position = Position.of(this.moves);
+    }
+
+    @Benchmark
+    public void check(Blackhole blackhole)
+    {
+        for (int col = 0; col < Position.WIDTH; col++)
+        {
+            blackhole.consume(this.position.canPlay(col) && this.position.isWinningMove(col));
+        }
+    }
+
+    @Benchmark
+    public void aligned(Blackhole blackhole)
+    {
+        for (int col = 0; col < Position.WIDTH; col++)
+        {
+            if (this.position.canPlay(col))
+            {
+                blackhole.consume(this.position.alignedIfPlayed(col, 0));
+                blackhole.consume(this.position.alignedIfPlayed(col, 1));
+            }
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package com.alexisdrai.connect4;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/*
+ * scores positions given one per line, as the columns played to reach them (from 1, as Position.of() takes them,
+ * "-" for the empty board), optionally followed by the expected score, like in the test sets of testsets/
+ *
+ * positions are analysed in parallel, but answered in the order they came in, one line each as soon as it is known:
+ *   <moves> <score> <best column> <nodes> <microseconds>[ expected <score>]
+ * (the expected score only when it differs from the one found), or "<line> ERR <reason>" for a line that is not a
+ * position. only so many lines are read ahead of the oldest unanswered one, so memory stays bounded however long
+ * the input is, and a summary (mean time and nodes per position) goes to stderr at the end
+ *
+ * with depth 0, positions are solved exactly, and scored as test sets usually are: 0 for a draw, else the number of
+ * tokens the winner has left once it wins (positive if the side to move wins, negative if it loses).
+ * with a depth, they are searched that deep, and scored in Search's scale. each thread has its own table, cleared
+ * before every position, so that the answer for a position never depends on the ones analysed before it
+ *
+ * usage: java -cp build com.alexisdrai.connect4.Analyzer [file, or - for stdin] [threads] [depth, 0 to solve]
+ * e.g.   java -cp build com.alexisdrai.connect4.Analyzer testsets/end.txt 8 > results.txt
+ */
+public class Analyzer
+{
+    private static final int TABLE_MEGABYTES   = 16;
+    private static final int QUEUED_PER_THREAD = 4;
+
+    private final int                 depth;
+    private final int                 threads;
+    private final ThreadLocal<Worker> workers = ThreadLocal.withInitial(Worker::new);
+
+    private long positions;
+    private long errors;
+    private long mismatches;
+    private long totalNanos;
+    private long totalNodes;
+
+    Analyzer(int threads, int depth)
+    {
+        if (threads < 1 || depth < 0)
+        {
+            throw new IllegalArgumentException(String.format("invalid analysis: %d threads, depth %d",
+                                                             threads,
+                                                             depth));
+        }
+        this.threads = threads;
+        this.depth = depth;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException
+    {
+        String input   = args.length > 0 ? args[0] : "-";
+        int    threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        int    depth   = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+
+        Analyzer analyzer  = new Analyzer(threads, depth);
+        long     startTime = System.nanoTime();
+        try (BufferedReader in = input.equals("-")
+                                 ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+                                 : Files.newBufferedReader(Paths.get(input), StandardCharsets.UTF_8);
+             Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8)))
+        {
+            analyzer.run(in, out);
+        }
+        System.err.println(analyzer.summary(System.nanoTime() - startTime));
+    }
+
+    // answers every line of in to out, in order
+    void run(BufferedReader in, Writer out) throws IOException, InterruptedException
+    {
+        ExecutorService            pool    = Executors.newFixedThreadPool(this.threads);
+        ArrayDeque<Future<Result>> pending = new ArrayDeque<>();
+        int                        window  = this.threads * QUEUED_PER_THREAD;
+        try
+        {
+            String line;
+            while ((line = in.readLine()) != null)
+            {
+                String trimmed = line.trim();
+                if (trimmed.isEmpty() || trimmed.startsWith("#"))
+                {
+                    continue;
+                }
+                pending.add(pool.submit(() -> this.workers.get().analyze(trimmed)));
+                if (pending.size() >= window)
+                {
+                    this.answer(pending.remove(), out);
+                }
+            }
+            while (!pending.isEmpty())
+            {
+                this.answer(pending.remove(), out);
+            }
+        } finally
+        {
+            pool.shutdownNow();
+        }
+    }
+
+    String summary(long wallNanos)
+    {
+        long analysed = this.positions - this.errors;
+        return String.format(Locale.ROOT,
+                             "%d positions (%d invalid, %d not scored as expected) in %.2fs: %.1f us and %.0f " +
+                             "nodes per position on average",
+                             this.positions,
+                             this.errors,
+                             this.mismatches,
+                             wallNanos / 1e9,
+                             analysed == 0 ? 0 : this.totalNanos / 1e3 / analysed,
+                             analysed == 0 ? 0 : (double) this.totalNodes / analysed);
+    }
+
+    long getMismatches()
+    {
+        return this.mismatches;
+    }
+
+    private void answer(Future<Result> pending, Writer out) throws IOException, InterruptedException
+    {
+        Result result;
+        try
+        {
+            result = pending.get();
+        } catch (ExecutionException e)
+        {
+            throw new IllegalStateException("an analysis failed", e.getCause());
+        }
+        this.positions++;
+        if (result.error)
+        {
+            this.errors++;
+        }
+        else
+        {
+            this.totalNanos += result.nanos;
+            this.totalNodes += result.nodes;
+        }
+        if (result.mismatch)
+        {
+            this.mismatches++;
+        }
+        out.write(result.text);
+        out.write('\n');
+        out.flush(); // a stream: whoever reads it gets each answer as soon as it is known
+    }
+
+    // score in the scale of test sets, from one in Search's scale
+    static int standardScore(int score)
+    {
+        if (score > Search.WIN_SCORE)
+        {
+            return (score - Search.WIN_SCORE + 1) / 2;
+        }
+        if (score < -Search.WIN_SCORE)
+        {
+            return -((-score - Search.WIN_SCORE + 1) / 2);
+        }
+        return 0;
+    }
+
+    private static final class Result
+    {
+        private final String  text;
+        private final boolean error;
+        private final boolean mismatch;
+        private final long    nanos;
+        private final long    nodes;
+
+        Result(String text, boolean error, boolean mismatch, long nanos, long nodes)
+        {
+            this.text = text;
+            this.error = error;
+            this.mismatch = mismatch;
+            this.nanos = nanos;
+            this.nodes = nodes;
+        }
+    }
+
+    // what one thread analyses with
+    private final class Worker
+    {
+        private final TranspositionTable table  = new TranspositionTable(TABLE_MEGABYTES);
+        private final EndgameSolver      solver = new EndgameSolver(this.table);
+        private final Search             search = Analyzer.this.depth > 0
+                                                  ? new Search(Analyzer.this.depth, this.table)
+                                                  : null;
+
+        Result analyze(String line)
+        {
+            String[] parts = line.split("\\s+");
+            Position position;
+            Integer  expected;
+            try
+            {
+                if (parts.length > 2)
+                {
+                    throw new IllegalArgumentException("expected moves and at most a score");
+                }
+                position = Position.of(parts[0].equals("-") ? "" : parts[0]);
+                expected = parts.length > 1 ? Integer.valueOf(parts[1]) : null;
+                if (position.isFull())
+                {
+                    throw new IllegalArgumentException("the board is full");
+                }
+            } catch (IllegalArgumentException e)
+            {
+                return new Result(line + " ERR " + e.getMessage(), true, false, 0, 0);
+            }
+
+            this.table.clear();
+            long start = System.nanoTime();
+            int  col;
+            int  score;
+            long nodes;
+            if (this.search == null)
+            {
+                col = this.solver.bestMove(position);
+                score = standardScore(this.solver.getScore());
+                nodes = this.solver.getNodes();
+            }
+            else
+            {
+                col = this.search.bestMove(position);
+                score = this.search.getScore();
+                nodes = this.search.getNodes();
+            }
+            long    nanos    = System.nanoTime() - start;
+            boolean mismatch = expected != null && this.search == null && expected != score;
+            String  text     = String.format(Locale.ROOT,
+                                                 "%s %d %d %d %d",
+                                                 parts[0],
+                                                 score,
+                                                 col + 1,
+                                                 nodes,
+                                                 nanos / 1_000);
+            return new Result(mismatch ? text + " expected " + expected : text, false, mismatch, nanos, nodes);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.alexisdrai.connect4;
+
+/*
+ * what a game needs from its board: Position for the classic 2-player game, GridBoard for every other variant
+ *
+ * players take turns in order, so the side to move follows from the number of moves played.
+ * columns and rows are counted from 0, rows from the bottom up, and columns must be in range
+ */
+interface Board
+{
+    int getSideToMove();
+
+    int getMoves();
+
+    boolean isFull();
+
+    boolean canPlay(int col);
+
+    // number of tokens already in that column
+    int height(int col);
+
+    // index of the player owning that cell, or -1 if it is empty
+    int owner(int col, int row);
+
+    void play(int col);
+
+    // takes back the last move, which must have been played in col
+    void undo(int col);
+
+    // true if the side to move would win by playing in col
+    boolean isWinningMove(int col);
+
+    // length of the longest line of the given player's tokens going through the cell a token dropped in col would fill
+    int alignedIfPlayed(int col, int side);
+
+    // identifies the position up to its mirror image (columns from right to left): a position and its mirror image
+    // share the same key, so that whatever is stored about one of them serves the other
+    long canonicalKey();
+
+    // whether canonicalKey() is that of the mirror image, in which case columns stored along with it are mirrored too
+    boolean isMirrored();
+
+    // a board of its own in the same state, which can be played on without touching this one
+    Board copy();
+}
@@ -0,0 +1,222 @@
+package com.alexisdrai.connect4;
+
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Objects;
+
+import static com.alexisdrai.util.Misc.ANSI_RESET;
+
+/*
+ * draws boards to the console, each frame built into one reusable buffer and written at once
+ *
+ * a redrawing renderer prints the whole board every frame, below whatever was printed before.
+ * otherwise, the first frame of a game clears the screen, and the next ones only move the cursor
+ * to the cells that changed since the last frame drawn and repaint them
+ *
+ * frames asked for less than minFrameNanos after the last one drawn are skipped, unless forced:
+ * since a frame is compared to the last one actually drawn, no move is ever lost, only intermediate frames
+ */
+final class BoardRenderer
+{
+    private static final String ESC     = "\u001B[";
+    private static final byte[] EMPTY   = (ANSI_RESET + "0").getBytes(StandardCharsets.US_ASCII);
+    private static final int    ORIGINS = 2; // rows and columns of the screen are counted from 1, plus a blank line
+
+    private final PrintStream out;
+    private final boolean     redraw;
+    private final long        minFrameNanos;
+
+    private byte[] frame = new byte[1 << 12];
+    private int    length;
+
+    // what the screen shows: owner of each cell plus 1, 0 when it is empty, column after column from the bottom up
+    private byte[]   shown;
+    private byte[][] tokens;
+    private C4Game   game;
+    private int      width;
+    private int      height;
+    private long     lastFrame;
+
+    BoardRenderer(PrintStream out, boolean redraw, long minFrameNanos)
+    {
+        this.out = Objects.requireNonNull(out);
+        if (minFrameNanos < 0)
+        {
+            throw new IllegalArgumentException("negative frame interval: " + minFrameNanos);
+        }
+        this.redraw = redraw;
+        this.minFrameNanos = minFrameNanos;
+    }
+
+    // whole board every time, at any rate
+    static BoardRenderer redrawing(PrintStream out)
+    {
+        return new BoardRenderer(out, true, 0);
+    }
+
+    // changed cells only, at most framesPerSecond times per second, or every time if it is 0
+    static BoardRenderer updating(PrintStream out, int framesPerSecond)
+    {
+        if (framesPerSecond < 0)
+        {
+            throw new IllegalArgumentException("negative frame rate: " + framesPerSecond);
+        }
+        return new BoardRenderer(out, false, framesPerSecond == 0 ? 0 : 1_000_000_000L / framesPerSecond);
+    }
+
+    // returns false if the frame was skipped
+    boolean render(C4Game game)
+    {
+        return this.render(game, false);
+    }
+
+    boolean render(C4Game game, boolean force)
+    {
+        Objects.requireNonNull(game);
+        long now = System.nanoTime();
+        if (!force && this.minFrameNanos > 0 && this.game != null && now - this.lastFrame < this.minFrameNanos)
+        {
+            return false;
+        }
+        this.lastFrame = now;
+        this.length = 0;
+
+        if (game != this.game)
+        {
+            this.reset(game);
+            this.drawAll(game.getBoard());
+        }
+        else if (this.redraw)
+        {
+            this.drawAll(game.getBoard());
+        }
+        else
+        {
+            this.drawChanges(game.getBoard());
+        }
+        this.out.write(this.frame, 0, this.length);
+        this.out.flush();
+        return true;
+    }
+
+    // forgets what the screen shows, so that the next frame is drawn in full
+    void invalidate()
+    {
+        this.game = null;
+    }
+
+    // once per game: the buffers are kept as long as they fit
+    private void reset(C4Game game)
+    {
+        Rules rules = game.getRules();
+        this.game = game;
+        this.width = rules.getWidth();
+        this.height = rules.getHeight();
+        if (this.shown == null || this.shown.length != rules.getCells())
+        {
+            this.shown = new byte[rules.getCells()];
+        }
+        C4Game.C4Player[] players = game.getPlayers();
+        if (this.tokens == null || this.tokens.length != players.length + 1)
+        {
+            this.tokens = new byte[players.length + 1][];
+            this.tokens[0] = EMPTY;
+        }
+        for (int i = 0; i < players.length; i++)
+        {
+            C4Game.Color color = players[i].getColor();
+            this.tokens[i + 1] = color.paint(String.valueOf(color.getSymbol())).getBytes(StandardCharsets.US_ASCII);
+        }
+        if (!this.redraw)
+        {
+            // from the top left corner of a blank screen
+            this.append(ESC + "H" + ESC + "2J");
+        }
+    }
+
+    private void drawAll(Board board)
+    {
+        this.append('\n');
+        for (int row = this.height - 1; row >= 0; row--)
+        {
+            for (int col = 0; col < this.width; col++)
+            {
+                byte token = (byte) (board.owner(col, row) + 1);
+                this.shown[col * this.height + row] = token;
+                this.append(' ');
+                this.append(this.tokens[token]);
+            }
+            this.append('\n');
+        }
+        this.append('\n');
+    }
+
+    private void drawChanges(Board board)
+    {
+        for (int col = 0; col < this.width; col++)
+        {
+            for (int row = 0; row < this.height; row++)
+            {
+                byte token = (byte) (board.owner(col, row) + 1);
+                int  cell  = col * this.height + row;
+                if (this.shown[cell] != token)
+                {
+                    this.shown[cell] = token;
+                    this.moveTo(ORIGINS + this.height - 1 - row, ORIGINS + 2 * col);
+                    this.append(this.tokens[token]);
+                }
+            }
+        }
+        // back below the board, where the next line of text belongs
+        this.moveTo(ORIGINS + this.height + 1, 1);
+    }
+
+    private void moveTo(int line, int column)
+    {
+        this.append(ESC);
+        this.append(line);
+        this.append(';');
+        this.append(column);
+        this.append('H');
+    }
+
+    private void append(int value)
+    {
+        if (value >= 10)
+        {
+            this.append(value / 10);
+        }
+        this.append((char) ('0' + value % 10));
+    }
+
+    private void append(char c)
+    {
+        this.ensure(1);
+        this.frame[this.length++] = (byte) c;
+    }
+
+    private void append(String ascii)
+    {
+        this.ensure(ascii.length());
+        for (int i = 0; i < ascii.length(); i++)
+        {
+            this.frame[this.length++] = (byte) ascii.charAt(i);
+        }
+    }
+
+    private void append(byte[] bytes)
+    {
+        this.ensure(bytes.length);
+        System.arraycopy(bytes, 0, this.frame, this.length, bytes.length);
+        this.length += bytes.length;
+    }
+
+    private void ensure(int extra)
+    {
+        if (this.length + extra > this.frame.length)
+        {
+            this.frame = Arrays.copyOf(this.frame, Math.max(2 * this.frame.length, this.length + extra));
+        }
+    }
+}
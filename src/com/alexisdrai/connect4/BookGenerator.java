@@ -0,0 +1,97 @@
+package com.alexisdrai.connect4;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/*
+ * writes an OpeningBook holding the best column of every position reachable within a given number of moves
+ * (only once for a position and its mirror image)
+ *
+ * each position is searched as deep as asked (or until its outcome is proven) with one shared transposition table,
+ * so that positions reached through different move orders help each other out
+ *
+ * usage: java -cp build com.alexisdrai.connect4.BookGenerator [file] [plies] [depth]
+ */
+public class BookGenerator
+{
+    private static final int TABLE_MEGABYTES = 256;
+
+    public static void main(String[] args) throws IOException
+    {
+        Path path  = args.length > 0 ? Paths.get(args[0]) : C4Game.BOOK_PATH;
+        int  plies = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int  depth = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+
+        long   startTime = System.nanoTime();
+        Search search    = new Search(depth, new TranspositionTable(TABLE_MEGABYTES));
+
+        // sorted by key, which is the order the book is searched in
+        SortedMap<Long, Long> book = new TreeMap<>();
+        collect(new Position(), plies, search, book);
+        long[] entries = book.values().stream().mapToLong(Long::longValue).toArray();
+        write(path, entries);
+
+        System.out.printf("%d positions (up to %d moves in, searched %d deep) written to %s in %.1fs%n",
+                          entries.length,
+                          plies,
+                          depth,
+                          path,
+                          (System.nanoTime() - startTime) / 1e9);
+    }
+
+    private static void collect(Position position, int plies, Search search, SortedMap<Long, Long> book)
+    {
+        long key = position.canonicalKey();
+        if (book.containsKey(key))
+        {
+            return; // already reached through another move order, or as the mirror image of this position
+        }
+        int move = search.bestMove(position);
+        book.put(key, OpeningBook.entry(key, position.isMirrored() ? Position.mirror(move) : move, search.getScore()));
+
+        if (plies == 0)
+        {
+            return;
+        }
+        for (int col = 0; col < Position.WIDTH; col++)
+        {
+            // positions where the game is already over have no opening move to remember
+            if (position.canPlay(col) && !position.isWinningMove(col))
+            {
+                Position child = new Position(position);
+                child.play(col);
+                if (!child.isFull())
+                {
+                    collect(child, plies - 1, search, book);
+                }
+            }
+        }
+    }
+
+    private static void write(Path path, long[] entries) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(OpeningBook.HEADER_BYTES + entries.length * Long.BYTES);
+        buffer.putInt(OpeningBook.MAGIC);
+        buffer.putInt(OpeningBook.VERSION);
+        buffer.putLong(entries.length);
+        buffer.asLongBuffer().put(entries);
+        buffer.rewind();
+
+        try (FileChannel channel = FileChannel.open(path,
+                                                    StandardOpenOption.CREATE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING,
+                                                    StandardOpenOption.WRITE))
+        {
+            while (buffer.hasRemaining())
+            {
+                channel.write(buffer);
+            }
+        }
+    }
+}
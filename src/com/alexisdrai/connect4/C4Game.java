@@ -1,212 +1,545 @@
 package com.alexisdrai.connect4;
 
-import java.io.FileOutputStream;
-import java.io.FileInputStream;
-import java.io.ObjectOutputStream;
-import java.io.ObjectInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.Serial;
-import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Arrays;
-import java.util.EnumMap;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.Objects;
-import java.util.Scanner;
+import java.util.Random;
 
 import static com.alexisdrai.util.Misc.*;
 
-public class C4Game implements Serializable
+public class C4Game
 {
-    @Serial
-    private static final long serialVersionUID = 1L;
+    static final int MAX_PLAYERS = Color.values().length;
+
+    private static final int DEFAULT_SEARCH_DEPTH = Position.CELLS;
+    private static final int DEFAULT_MOVE_MILLIS  = 250;
+    private static final int DEFAULT_THREADS      = 1;
+    private static final int TABLE_MEGABYTES      = 64;
+    private static final int HINT_POLL_MILLIS     = 5;
+
+    // bots solve positions with that many empty cells or fewer, which takes a millisecond on average
+    static final int DEFAULT_ENDGAME_CELLS = 16;
+
+    private static final int  SAVE_MAGIC   = 0x43345356; // "C4SV"
+    private static final byte SAVE_VERSION = 7;
+    private static final byte HUMAN        = 0;
+    private static final byte BOT          = 1;
+    private static final byte MCTS         = 2;
+
+    static final Path BOOK_PATH      = Paths.get(".").resolve("book.bin");
+    static final Path TABLEBASE_PATH = Paths.get(".").resolve("tablebase.bin");
+    static final Path NETWORK_PATH   = Paths.get(".").resolve("ntuple.bin");
+
+    // shared by every bot, opened the first time one of them needs it
+    private static OpeningBook   book;
+    private static boolean       bookOpened;
+    private static Tablebase     tablebase;
+    private static boolean       tablebaseOpened;
+    private static NTupleNetwork network;
+    private static boolean       networkLoaded;
+
+    private final Rules         rules;
+    private final C4Player[]    players;
+    // a Position for the classic 2-player game, which bots can search, else a GridBoard
+    private final Board         board;
+    // follows the position move by move, to tell threats and immediate wins at a glance (classic game only)
+    private final ThreatTracker threats;
+    // every column played so far, in order
+    private final byte[]        history;
+
+    // when the game is journaled (see journalTo()), every move goes to the journal, and every compactEvery moves,
+    // the whole game is saved to journalSnapshot instead
+    private byte        generation;
+    private MoveJournal journal;
+    private Path        journalSnapshot;
+    private int         compactEvery;
+    private int         journaledMoves;
 
-    static final Scanner scanner   = new Scanner(System.in);
-    static final int     SAVE_CODE = -2;
-    static final int     LOAD_CODE = -3;
-    static final int     QUIT_CODE = -4;
-
-    private static final int TTL_COLS      = 7;
-    private static final int TTL_ROWS      = 6;
-    private static final int TTL_PLAYERS   = 2;
-    private static final int WIN_CONDITION = 4;
-
-    //an array of the indices of the topmost free cell of each column
-    private int[]      topFreeCells = new int[TTL_COLS];
-    private C4Player[] players      = new C4Player[TTL_PLAYERS];
-    private Cell[][]   board        = new Cell[TTL_ROWS][TTL_COLS];
-
-    private int      tokensLeft;
     private boolean  isWon;
     private boolean  isFull;
-    private C4Player currentPlayer;
+    // whether the game's end was counted (see completed()): only once, even if it is undone and played again,
+    // and never for a game loaded already over
+    private boolean  completionCounted;
+
+    // what searches the position while a human thinks (see ponder() and hint()), and the one kept for hints
+    // when no bot ponders
+    private Ponderer pondering;
+    private Ponderer analyst;
 
-    C4Game()
+    // one name per player, as they would be typed at the prompt: a player's name, or "bot" and its options
+    C4Game(String... names)
     {
-        this.tokensLeft = TTL_COLS * TTL_ROWS;
-        Arrays.fill(this.topFreeCells, TTL_ROWS - 1); // marking all free cells as bottom cells
-        this.isWon = false;
-        this.isFull = false;
-        this.assignPlayers();
-        this.currentPlayer = this.players[0];
-        this.resetBoard();
+        this(Rules.CLASSIC, names);
     }
 
-    C4Game(Path path) throws IOException, ClassNotFoundException
+    C4Game(Rules rules, String... names)
     {
-        C4Game loaded = this.load(Objects.requireNonNull(path));
+        this(rules, PlayerSpec.parseAll(names));
+    }
 
-        this.tokensLeft = loaded.getTokensLeft();
-        this.isWon = loaded.isWon();
-        this.isFull = loaded.isFull();
-        this.currentPlayer = loaded.getCurrentPlayer();
+    C4Game(PlayerSpec... specs)
+    {
+        this(Rules.CLASSIC, specs);
+    }
 
-        this.topFreeCells = loaded.getTopFreeCells();
-        this.players = loaded.getPlayers();
-        this.board = loaded.getBoard();
-        displayBoard();
+    // players take turns in the order of their specs
+    C4Game(Rules rules, PlayerSpec... specs)
+    {
+        Objects.requireNonNull(rules);
+        Objects.requireNonNull(specs);
+        if (specs.length < 2 || specs.length > MAX_PLAYERS)
+        {
+            throw new IllegalArgumentException(String.format("a game needs 2 to %d players, got %d",
+                                                             MAX_PLAYERS,
+                                                             specs.length));
+        }
+        boolean classic = rules.isClassic() && specs.length == 2;
+        this.rules = rules;
+        this.players = new C4Player[specs.length];
+        this.board = classic ? new Position() : new GridBoard(rules, specs.length);
+        this.threats = classic ? new ThreatTracker() : null;
+        this.history = new byte[rules.getCells()];
+        this.isWon = false;
+        this.isFull = false;
+        this.assignPlayers(specs);
     }
 
+    /*
+     * save format (big endian), a few dozen bytes:
+     *  SAVE_MAGIC (int), SAVE_VERSION (byte), generation of the game's journal (byte, since version 2)
+     *  columns, rows, tokens to connect and number of players (bytes, since version 3: before, the classic game)
+     *  for each player, either
+     *      HUMAN (byte), then its name in UTF-8, preceded by its length in bytes (unsigned short)
+     *      BOT (byte), then its depth (byte), move time budget in ms (int), threads (byte), table size in MB (short)
+     *      and the number of empty cells it solves positions from (byte, since version 5)
+     *      and whether it ponders (byte: 1 if it does, 0 otherwise, since version 6)
+     *      and whether it evaluates with the n-tuple network (byte: 1 if it does, 0 otherwise, since version 7)
+     *      MCTS (byte, since version 4), then its playouts per move (int), move time budget in ms (int),
+     *      threads (byte) and tree size in MB (short)
+     *  number of moves played (int since version 3, byte before), then their columns:
+     *  two per byte (the earlier one in the high nibble) on boards of up to 16 columns, else one per byte
+     *
+     * the file is written next to its destination first, then moved over it, so that a crash mid-save never leaves
+     * a half-written game behind
+     */
     void save(@SuppressWarnings("SameParameterValue") Path path) throws IOException
     {
         Objects.requireNonNull(path);
-        System.out.println("saving game...");
 
-        FileOutputStream   fos = new FileOutputStream(String.valueOf(path));
-        ObjectOutputStream oos = new ObjectOutputStream(fos);
-        oos.writeObject(this);
-        oos.flush();
-        oos.close();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream      out   = new DataOutputStream(bytes);
+        out.writeInt(SAVE_MAGIC);
+        out.writeByte(SAVE_VERSION);
+        out.writeByte(this.generation);
+        out.writeByte(this.rules.getWidth());
+        out.writeByte(this.rules.getHeight());
+        out.writeByte(this.rules.getConnect());
+        out.writeByte(this.players.length);
+        for (C4Player player : this.players)
+        {
+            PlayerSpec spec = player.getSpec();
+            if (spec.isMonteCarlo())
+            {
+                out.writeByte(MCTS);
+                out.writeInt(spec.playouts);
+                out.writeInt(spec.millis);
+                out.writeByte(spec.threads);
+                out.writeShort(spec.tableMegabytes);
+            }
+            else if (spec.isBot())
+            {
+                out.writeByte(BOT);
+                out.writeByte(spec.depth);
+                out.writeInt(spec.millis);
+                out.writeByte(spec.threads);
+                out.writeShort(spec.tableMegabytes);
+                out.writeByte(spec.endgameCells);
+                out.writeByte(spec.ponders ? 1 : 0);
+                out.writeByte(spec.ntuple ? 1 : 0);
+            }
+            else
+            {
+                out.writeByte(HUMAN);
+                byte[] name = spec.name.getBytes(StandardCharsets.UTF_8);
+                out.writeShort(name.length);
+                out.write(name);
+            }
+        }
+        int moves = this.board.getMoves();
+        out.writeInt(moves);
+        if (packsColumns(this.rules))
+        {
+            for (int i = 0; i < moves; i += 2)
+            {
+                int next = i + 1 < moves ? this.history[i + 1] : 0;
+                out.writeByte(this.history[i] << 4 | next);
+            }
+        }
+        else
+        {
+            out.write(this.history, 0, moves);
+        }
 
-        System.out.println("game saved");
+        Path       tmp    = path.resolveSibling(path.getFileName() + ".tmp");
+        ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+        try (FileChannel channel = FileChannel.open(tmp,
+                                                    StandardOpenOption.CREATE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING,
+                                                    StandardOpenOption.WRITE))
+        {
+            while (buffer.hasRemaining())
+            {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
     }
 
-    private C4Game load(Path path) throws IOException, ClassNotFoundException
+    // rebuilds the players from the file, then replays the moves, followed by those of its journal if there is one
+    static C4Game load(Path path) throws IOException
     {
         Objects.requireNonNull(path);
-        System.out.println("loading game...");
-
-        FileInputStream   fis = new FileInputStream(String.valueOf(path));
-        ObjectInputStream ois = new ObjectInputStream(fis);
-
-        C4Game newBoard = (C4Game) ois.readObject();
-        ois.close();
 
-        System.out.println("game loaded");
-        return newBoard;
-    }
-
-    private void assignPlayers()
-    {
-        int botCount = 0;
-        int allCount = 0;
-        for (Color color : Color.values())
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
         {
-            String name = null;
+            buffer = ByteBuffer.allocate((int) Math.min(channel.size(), Integer.MAX_VALUE - 8));
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0)
+            {
+                // reading until the buffer is full or the file is over
+            }
+            buffer.flip();
+        }
 
-            while (name == null || name.equals(""))
+        try
+        {
+            byte version = buffer.getInt() == SAVE_MAGIC ? buffer.get() : 0;
+            if (version < 1 || version > SAVE_VERSION)
+            {
+                throw new IOException(path + " is not a version 1 to " + SAVE_VERSION + " connect4 save");
+            }
+            byte  generation = version >= 2 ? buffer.get() : 0;
+            Rules rules      = Rules.CLASSIC;
+            int   players    = 2;
+            if (version >= 3)
+            {
+                rules = new Rules(buffer.get(), buffer.get(), buffer.get());
+                players = buffer.get();
+            }
+            if (players < 2 || players > MAX_PLAYERS)
             {
-                String colorStr = color.toString().toLowerCase();
-                if (color == Color.RED)
+                throw new IOException(path + " has an impossible number of players: " + players);
+            }
+            PlayerSpec[] specs = new PlayerSpec[players];
+            for (int i = 0; i < players; i++)
+            {
+                byte kind = buffer.get();
+                if (kind == BOT)
+                {
+                    int depth   = buffer.get();
+                    int millis  = buffer.getInt();
+                    int threads = buffer.get();
+                    specs[i] = PlayerSpec.bot(depth, millis, threads)
+                                         .withTableMegabytes(buffer.getShort())
+                                         .withEndgameCells(version >= 5 ? buffer.get() : DEFAULT_ENDGAME_CELLS)
+                                         .withPondering(version >= 6 && buffer.get() != 0)
+                                         .withNetwork(version >= 7 && buffer.get() != 0);
+                }
+                else if (kind == MCTS)
                 {
-                    colorStr = ANSI_RED + colorStr + ANSI_RESET;
+                    int playouts = buffer.getInt();
+                    int millis   = buffer.getInt();
+                    int threads  = buffer.get();
+                    specs[i] = PlayerSpec.monteCarlo(playouts, millis, threads).withTableMegabytes(buffer.getShort());
                 }
-                if (color == Color.YELLOW)
+                else if (kind == HUMAN)
                 {
-                    colorStr = ANSI_YELLOW + colorStr + ANSI_RESET;
+                    byte[] name = new byte[Short.toUnsignedInt(buffer.getShort())];
+                    buffer.get(name);
+                    specs[i] = PlayerSpec.human(new String(name, StandardCharsets.UTF_8));
                 }
-                System.out.println("Who shall play " + colorStr + "?");
-                System.out.println(
-                        "(please enter your name, or \"bot\" (in lowercase) to assign them " + colorStr + ")");
-                if (scanner.hasNextLine())
+                else
                 {
-                    name = scanner.nextLine();
+                    throw new IOException(path + " has an unknown kind of player: " + kind);
                 }
             }
 
-            if (name.equals("bot"))
+            C4Game  game   = new C4Game(rules, specs);
+            int     moves  = version >= 3 ? buffer.getInt() : buffer.get();
+            // the moves replayed were played before, and so was the end of the game if they reach it
+            game.completionCounted = true;
+            boolean packed = packsColumns(rules);
+            int     pair   = 0;
+            if (moves < 0 || moves > rules.getCells())
             {
-                botCount++;
-                this.players[allCount] = new C4Player_CPU(name + "_" + botCount, color);
+                throw new IOException(path + " has an impossible number of moves: " + moves);
             }
-            else
+            for (int i = 0; i < moves; i++)
             {
-                this.players[allCount] = new C4Player(name, color);
+                if (i % 2 == 0 || !packed)
+                {
+                    pair = buffer.get();
+                }
+                int col = !packed ? pair : i % 2 == 0 ? (pair >> 4) & 0xF : pair & 0xF;
+                if (game.isOver() || !game.canPlay(col))
+                {
+                    throw new IOException(path + " holds an impossible move: column " + col + " at move " + i);
+                }
+                game.play(col);
+            }
+
+            game.generation = generation;
+            for (int col : MoveJournal.read(MoveJournal.pathFor(path), generation, moves, rules.getCells()))
+            {
+                if (game.isOver() || !game.canPlay(col))
+                {
+                    break; // cannot be part of this game: the journal must be damaged
+                }
+                game.play(col);
             }
-            allCount++;
+            game.completionCounted = game.isOver();
+            return game;
+        } catch (BufferUnderflowException | IllegalArgumentException e)
+        {
+            throw new IOException(path + " is truncated or corrupted", e);
+        }
+    }
+
+    // whether two columns fit in a byte
+    private static boolean packsColumns(Rules rules)
+    {
+        return rules.getWidth() <= 16;
+    }
+
+    /*
+     * from now on, saves the game to path after every compactEvery moves (if that is not 0),
+     * and journals the moves in between, forcing them to disk every syncEvery moves (if that is not 0).
+     * load(path) then recovers the game up to its last journaled move
+     */
+    void journalTo(Path path, int syncEvery, int compactEvery) throws IOException
+    {
+        Objects.requireNonNull(path);
+        if (compactEvery < 0)
+        {
+            throw new IllegalArgumentException("cannot compact every " + compactEvery + " moves");
+        }
+        this.closeJournal();
+
+        // a new generation, so that whatever the journal holds now is ignored
+        // even if the truncation below never happens
+        this.generation = (byte) (readGeneration(path) + 1);
+        this.save(path);
+        MoveJournal journal = new MoveJournal(MoveJournal.pathFor(path), this.generation, syncEvery);
+        journal.truncate();
+
+        this.journal = journal;
+        this.journalSnapshot = path;
+        this.compactEvery = compactEvery;
+        this.journaledMoves = 0;
+    }
+
+    void closeJournal() throws IOException
+    {
+        if (this.journal != null)
+        {
+            this.journal.close();
+            this.journal = null;
         }
     }
 
-    private void resetBoard()
+    private void journal(int moveIdx, int columnIdx)
     {
-        // putting the board itself together
-        for (int i = 0; i < TTL_ROWS; i++)
+        try
         {
-            this.board[i] = new Cell[TTL_COLS];
-            for (int j = 0; j < TTL_COLS; j++)
+            this.journal.append(moveIdx, columnIdx);
+            this.journaledMoves++;
+            if (this.compactEvery > 0 && this.journaledMoves >= this.compactEvery)
             {
-                this.board[i][j] = new Cell();
+                this.compactJournal();
             }
+        } catch (IOException e)
+        {
+            throw new UncheckedIOException("could not journal move " + moveIdx + " to " + this.journalSnapshot, e);
         }
+    }
+
+    private void compactJournal() throws IOException
+    {
+        // snapshot first: if the truncation never happens, the snapshot's moves get skipped when replaying
+        this.save(this.journalSnapshot);
+        this.journal.truncate();
+        this.journaledMoves = 0;
+    }
 
-        //registering neighbors
-        for (int i = 0; i < TTL_ROWS; i++)
+    // generation of the journal of the game saved at that path, or 0 if there is none
+    private static byte readGeneration(Path path)
+    {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+        {
+            ByteBuffer header = ByteBuffer.allocate(Integer.BYTES + 2);
+            while (header.hasRemaining() && channel.read(header) >= 0)
+            {
+                // reading until the header is complete or the file is over
+            }
+            header.flip();
+            if (header.remaining() == header.capacity() && header.getInt() == SAVE_MAGIC && header.get() >= 2)
+            {
+                return header.get();
+            }
+        } catch (IOException ignored)
+        {
+            // no (readable) save there
+        }
+        return 0;
+    }
+
+    private static synchronized OpeningBook getBook()
+    {
+        if (!bookOpened)
         {
-            for (int j = 0; j < TTL_COLS; j++)
+            bookOpened = true;
+            if (Files.exists(BOOK_PATH))
             {
-                if (i > 0)
+                try
                 {
-                    // not the top row => add upper neighbors
-                    this.board[i][j].setNeighbor(
-                            Direction.UP,
-                            this.board[i - 1][j]
-                    );
-                }
-                if (j < TTL_COLS - 1)
+                    book = OpeningBook.open(BOOK_PATH);
+                } catch (Exception ignored)
                 {
-                    // not the rightmost col => add right neighbors
-                    this.board[i][j].setNeighbor(
-                            Direction.RIGHT,
-                            this.board[i][j + 1]
-                    );
+                    // bots will search their openings instead
                 }
-                if (i < TTL_ROWS - 1)
+            }
+        }
+        return book;
+    }
+
+    // loaded in full the first time a bot needs it: a few megabytes of weights, read on every leaf of its searches
+    private static synchronized NTupleNetwork getNetwork()
+    {
+        if (!networkLoaded)
+        {
+            networkLoaded = true;
+            if (Files.exists(NETWORK_PATH))
+            {
+                try
+                {
+                    network = NTupleNetwork.load(NETWORK_PATH);
+                } catch (Exception ignored)
                 {
-                    // not the bottom row => add lower neighbors
-                    this.board[i][j].setNeighbor(
-                            Direction.DOWN,
-                            this.board[i + 1][j]
-                    );
+                    // bots will evaluate positions with ThreatTracker instead
                 }
-                if (j > 0)
+            }
+        }
+        return network;
+    }
+
+    private static synchronized Tablebase getTablebase()
+    {
+        if (!tablebaseOpened)
+        {
+            tablebaseOpened = true;
+            if (Files.exists(TABLEBASE_PATH))
+            {
+                try
+                {
+                    tablebase = Tablebase.open(TABLEBASE_PATH);
+                } catch (Exception ignored)
                 {
-                    // not the leftmost col => add left neighbors
-                    this.board[i][j].setNeighbor(
-                            Direction.LEFT,
-                            this.board[i][j - 1]
-                    );
+                    // bots will solve their endgames instead
                 }
             }
         }
+        return tablebase;
+    }
+
+    private void assignPlayers(PlayerSpec[] specs)
+    {
+        int botCount = 0;
+        for (int allCount = 0; allCount < specs.length; allCount++)
+        {
+            Color      color = Color.values()[allCount];
+            PlayerSpec spec  = Objects.requireNonNull(specs[allCount]);
+            if (spec.isMonteCarlo())
+            {
+                botCount++;
+                this.players[allCount] = new C4Player_MCTS("mcts_" + botCount,
+                                                           color,
+                                                           spec.playouts,
+                                                           spec.millis,
+                                                           spec.threads,
+                                                           spec.tableMegabytes,
+                                                           spec.seed == null ? new Random() : new Random(spec.seed));
+            }
+            else if (spec.isBot())
+            {
+                botCount++;
+                this.players[allCount] = new C4Player_CPU("bot_" + botCount,
+                                                          color,
+                                                          spec.depth,
+                                                          spec.millis,
+                                                          spec.threads,
+                                                          spec.tableMegabytes,
+                                                          spec.endgameCells,
+                                                          spec.ponders,
+                                                          spec.ntuple,
+                                                          spec.sharedTable,
+                                                          spec.seed == null ? new Random() : new Random(spec.seed));
+            }
+            else
+            {
+                this.players[allCount] = new C4Player(spec.name, color);
+            }
+        }
     }
 
+    /*
+     * whoever moves next, in the order players were given in, or whoever moved last once the game is over.
+     * read off the number of moves played, like the owner of each token, so that the two can never disagree
+     */
     C4Player getCurrentPlayer()
     {
-        return this.currentPlayer;
+        int moves = this.board.getMoves();
+        return this.players[(this.isOver() ? moves - 1 : moves) % this.players.length];
     }
 
-    private void setCurrentPlayer(C4Player currentPlayer)
+    Rules getRules()
     {
-        this.currentPlayer = currentPlayer;
+        return this.rules;
     }
 
-    Cell[][] getBoard()
+    Board getBoard()
     {
         return this.board;
     }
 
-    int[] getTopFreeCells()
+    // the board as bots search it, or null if the game is not the classic 2-player one
+    Position getPosition()
+    {
+        return this.board instanceof Position position ? position : null;
+    }
+
+    // identifies the position on the board, however it was reached: a position and its mirror image share a key
+    long getKey()
+    {
+        return this.board.canonicalKey();
+    }
+
+    // null if the game is not the classic 2-player one
+    ThreatTracker getThreats()
     {
-        return this.topFreeCells;
+        return this.threats;
     }
 
     C4Player[] getPlayers()
@@ -219,9 +552,27 @@ public class C4Game implements Serializable
         return this.isFull;
     }
 
+    boolean canPlay(int columnIdx)
+    {
+        return 0 <= columnIdx && columnIdx < this.rules.getWidth() && this.board.canPlay(columnIdx);
+    }
+
+    // the player whose token is in that cell (with rows counted from the bottom up), or null if it is empty
+    C4Player getOwner(int columnIdx, int rowIdx)
+    {
+        int owner = this.board.owner(columnIdx, rowIdx);
+        return owner < 0 ? null : this.players[owner];
+    }
+
+    // the player who made the winning move, or null if nobody has (yet)
+    C4Player getWinner()
+    {
+        return this.isWon() ? this.getCurrentPlayer() : null;
+    }
+
     void updateFull()
     {
-        this.isFull = (this.getTokensLeft() == 0);
+        this.isFull = this.board.isFull();
     }
 
     private void win()
@@ -239,237 +590,310 @@ public class C4Game implements Serializable
         return this.isWon() || this.isFull();
     }
 
-    private void takeCell(int columnIdx)
-    {
-        this.topFreeCells[columnIdx]--;
-        this.useToken();
-    }
-
-    private void useToken()
-    {
-        this.tokensLeft--;
-        this.updateFull();
-    }
-
     int getTokensLeft()
     {
-        return this.tokensLeft;
+        return this.rules.getCells() - this.board.getMoves();
     }
 
-    void switchPlayer()
+    // the columns played so far, numbered from 1 (as Position.of() takes them),
+    // separated by commas on boards of more than 9 columns
+    String getHistory()
     {
-        // nice to have: iterate through whole player structure regardless of size,
-        // to allow for scaling to more than 2 players
-
-        C4Player next;
-        if (this.currentPlayer == this.players[0])
+        StringBuilder moves = new StringBuilder(this.board.getMoves());
+        for (int i = 0; i < this.board.getMoves(); i++)
         {
-            next = this.players[1];
-        }
-        else
-        {
-            next = this.players[0];
+            if (i > 0 && this.rules.getWidth() > 9)
+            {
+                moves.append(',');
+            }
+            moves.append(this.history[i] + 1);
         }
-        this.setCurrentPlayer(next);
+        return moves.toString();
+    }
+
+    // the columns played so far, numbered from 0
+    byte[] getMoves()
+    {
+        byte[] moves = new byte[this.board.getMoves()];
+        System.arraycopy(this.history, 0, moves, 0, moves.length);
+        return moves;
     }
 
-    void displayBoard()
+    // index of a player in the turn order
+    int indexOf(C4Player player)
     {
-        String cellStr = "WUH-OH"; // this default string should never get printed
-        System.out.println();
-        for (int i = 0; i < TTL_ROWS; i++)
+        for (int i = 0; i < this.players.length; i++)
         {
-            for (int j = 0; j < TTL_COLS; j++)
+            if (this.players[i] == player)
             {
-                Color color = this.board[i][j].getColor();
-                // nice to have: account for more players, later down the line?
-                if (color == null)
-                {
-                    cellStr = ANSI_RESET + "0";
-                }
-                if (color == Color.RED)
-                {
-                    cellStr = ANSI_RED + "#" + ANSI_RESET;
-                }
-                if (color == Color.YELLOW)
-                {
-                    cellStr = ANSI_YELLOW + "@" + ANSI_RESET;
-                }
-                System.out.print(" " + cellStr);
+                return i;
             }
-            System.out.println();
         }
-        System.out.println();
+        throw new IllegalArgumentException(player.getName() + " is not in this game");
     }
 
     void registerMove(int columnIdx)
     {
-        Color color = this.getCurrentPlayer().getColor();
-
-        if (!(0 <= columnIdx && columnIdx < TTL_COLS))
+        long                        start = EngineMetrics.isCounting() ? System.nanoTime() : 0L;
+        EngineEvents.MoveRegistered event = EngineEvents.moveRegistered();
+        this.stopPondering();
+        if (!(0 <= columnIdx && columnIdx < this.rules.getWidth()))
         {
             throw new OutOfBoardException(columnIdx);
         }
-        if (this.getTopFreeCells()[columnIdx] < 0)
+        if (!this.board.canPlay(columnIdx))
         {
             throw new FullColumnException(columnIdx);
         }
 
-        // finding "altitude" of inserted token
-        int row = this.getTopFreeCells()[columnIdx];
-        // coloring in the token
-        this.board[row][columnIdx].setColor(color);
-        // checking for victory
-        this.check(this.board[row][columnIdx], color);
-        // updating trackers ("altitudes", number of turns left)
-        this.takeCell(columnIdx);
+        // checking for victory before the token lands, since the position only knows about the side to move
+        this.check(columnIdx);
+        // dropping the token, which also updates the column's "altitude" and the number of turns left
+        int moveIdx = this.board.getMoves();
+        this.history[moveIdx] = (byte) columnIdx;
+        this.board.play(columnIdx);
+        if (this.threats != null)
+        {
+            this.threats.play(columnIdx);
+        }
+        this.updateFull();
+        if (this.journal != null)
+        {
+            this.journal(moveIdx, columnIdx);
+        }
+
+        if (start != 0L)
+        {
+            EngineMetrics.moveRegistered(System.nanoTime() - start);
+        }
+        if (event != null && event.shouldCommit())
+        {
+            event.column = columnIdx;
+            event.moves = moveIdx + 1;
+            event.journaled = this.journal != null;
+            event.commit();
+        }
+        if (this.isOver() && !this.completionCounted)
+        {
+            this.completed();
+        }
     }
 
-    private void check(Cell cell, Color color)
+    private void completed()
     {
-        Objects.requireNonNull(cell);
-        Objects.requireNonNull(color);
-
-        int maxAlignment = this.aligned(cell, color);
-        if (maxAlignment >= WIN_CONDITION)
+        this.completionCounted = true;
+        EngineMetrics.gameCompleted();
+        EngineEvents.GameCompleted event = new EngineEvents.GameCompleted();
+        if (event.shouldCommit())
         {
-            this.win();
+            StringBuilder players = new StringBuilder();
+            for (C4Player player : this.players)
+            {
+                players.append(players.length() == 0 ? "" : ",").append(player.getName());
+            }
+            event.rules = this.rules.toString();
+            event.players = players.toString();
+            event.winner = this.isWon() ? this.getCurrentPlayer().getName() : null;
+            event.moves = this.board.getMoves();
+            event.commit();
         }
     }
 
-    private int aligned(Cell cell, Color color)
+    // registers the current player's move: the turn then goes to the next one by itself (see getCurrentPlayer())
+    void play(int columnIdx)
     {
-        Objects.requireNonNull(cell);
-        Objects.requireNonNull(color);
-        int[] alignments = new int[4];
-
-        alignments[0] = alignedStraight(upOrigin(cell, color), color, Direction.DOWN);                      // '|'
-        alignments[1] = alignedDiag(topLeftOrigin(cell, color), color, Direction.RIGHT, Direction.DOWN);    // '\'
-        alignments[2] = alignedStraight(leftOrigin(cell, color), color, Direction.RIGHT);                   // '-'
-        alignments[3] = alignedDiag(bottomLeftOrigin(cell, color), color, Direction.RIGHT, Direction.UP);   // '/'
-
-        return Arrays.stream(alignments).max().getAsInt();
+        this.registerMove(columnIdx);
     }
 
-    private Cell upOrigin(Cell cell, Color color)
+    // exact inverse of play(): takes the last move back and gives the turn back to whoever made it
+    void undo()
     {
-        Objects.requireNonNull(cell);
-        Objects.requireNonNull(color);
-        return this.straightOrigin(cell, color, Direction.UP);
+        int moves = this.board.getMoves();
+        if (moves == 0)
+        {
+            throw new IllegalStateException("no move to undo");
+        }
+        this.stopPondering();
+        // the game was not won before that move, or it would have ended there
+        this.isWon = false;
+        this.board.undo(this.history[moves - 1]);
+        if (this.threats != null)
+        {
+            this.threats.undo(this.history[moves - 1]);
+        }
+        this.updateFull();
+        if (this.journal != null)
+        {
+            try
+            {
+                // the journal only ever grows, so the undone move has to go through a snapshot
+                this.compactJournal();
+            } catch (IOException e)
+            {
+                throw new UncheckedIOException("could not journal an undo to " + this.journalSnapshot, e);
+            }
+        }
     }
 
-    private Cell topLeftOrigin(Cell cell, Color color)
+    /*
+     * lets the next player search the position while the current one thinks it over, if it is a bot that ponders
+     * (see Ponderer), until the next move, undo or call to stopPondering()
+     */
+    void ponder()
     {
-        Objects.requireNonNull(cell);
-        Objects.requireNonNull(color);
-        return this.diagOrigin(cell, color, Direction.LEFT, Direction.UP);
+        Ponderer ponderer = this.nextPonderer();
+        if (ponderer != null)
+        {
+            ponderer.start(this.getPosition());
+            this.pondering = ponderer;
+        }
     }
 
-    private Cell leftOrigin(Cell cell, Color color)
+    void stopPondering()
     {
-        Objects.requireNonNull(cell);
-        Objects.requireNonNull(color);
-        return this.straightOrigin(cell, color, Direction.LEFT);
+        if (this.pondering != null)
+        {
+            this.pondering.stop();
+            this.pondering = null;
+        }
     }
 
-    private Cell bottomLeftOrigin(Cell cell, Color color)
+    /*
+     * takes every move back and has every player forget them, so that the same bots can play another game without
+     * being built again. seeds: each player's, in turn order, for their tie breaks (see PlayerSpec.withSeed())
+     */
+    void restart(long... seeds)
     {
-        Objects.requireNonNull(cell);
-        Objects.requireNonNull(color);
-        return this.diagOrigin(cell, color, Direction.LEFT, Direction.DOWN);
+        if (seeds.length != this.players.length)
+        {
+            throw new IllegalArgumentException(String.format("%d players need as many seeds, got %d",
+                                                             this.players.length, seeds.length));
+        }
+        this.stopPondering();
+        while (this.board.getMoves() > 0)
+        {
+            this.undo();
+        }
+        this.completionCounted = false;
+        for (int i = 0; i < this.players.length; i++)
+        {
+            this.players[i].forget();
+            this.players[i].reseed(seeds[i]);
+        }
     }
 
-    private Cell diagOrigin(Cell cell, Color color, Direction leftRight, Direction upDown)
-            throws InvalidDiagonalException
+    // stops every thread the bots search with, once the game is no longer played
+    void shutdown()
     {
-        Objects.requireNonNull(cell);
-        Objects.requireNonNull(color);
-        Objects.requireNonNull(leftRight);
-        Objects.requireNonNull(upDown);
-
-        if (upDown == Direction.LEFT
-            || upDown == Direction.RIGHT
-            || leftRight == Direction.UP
-            || leftRight == Direction.DOWN)
+        this.stopPondering();
+        for (C4Player player : this.players)
         {
-            throw new InvalidDiagonalException(leftRight, upDown);
+            player.shutdown();
         }
+    }
 
-        Cell halfNext = cell.getNeighbor(leftRight);
-        if (halfNext == null)
+    /*
+     * how good every column is for the current player, in Search's scale (Integer.MIN_VALUE for full ones),
+     * as scored by the next bot's pondering, or by a search started for the occasion if it does not ponder.
+     * that search has had at least millis to think once this returns, and goes on like pondering does.
+     * classic game only
+     */
+    int[] hint(long millis)
+    {
+        Position position = this.getPosition();
+        if (position == null)
+        {
+            throw new IllegalStateException("hints are only available in the classic 2-player game");
+        }
+        if (this.isOver())
+        {
+            throw new IllegalStateException("the game is over");
+        }
+        Ponderer ponderer = this.nextPonderer();
+        if (ponderer == null)
+        {
+            if (this.analyst == null)
+            {
+                this.analyst = new Ponderer(DEFAULT_SEARCH_DEPTH, new TranspositionTable(TABLE_MEGABYTES));
+            }
+            ponderer = this.analyst;
+        }
+        if (this.pondering != ponderer)
         {
-            return cell;
+            this.stopPondering();
         }
-        Cell next = halfNext.getNeighbor(upDown);
-        if (next == null || next.getColor() != color)
+        ponderer.start(position);
+        this.pondering = ponderer;
+
+        long minNanos = millis * 1_000_000L;
+        while ((ponderer.getElapsed() < minNanos || ponderer.getDepth() == 0) && ponderer.isPondering(position))
         {
-            return cell;
+            try
+            {
+                Thread.sleep(HINT_POLL_MILLIS);
+            } catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                break;
+            }
         }
-        return this.diagOrigin(next, color, leftRight, upDown);
+        return ponderer.getColumnScores();
     }
 
-    private Cell straightOrigin(Cell cell, Color color, Direction direction)
+    private Ponderer nextPonderer()
     {
-        Objects.requireNonNull(cell);
-        Objects.requireNonNull(color);
-        Objects.requireNonNull(direction);
-
-        Cell next = cell.getNeighbor(direction);
-        if (next == null || next.getColor() == null || next.getColor() != color)
+        if (this.getPosition() == null || this.isOver())
         {
-            return cell;
+            return null;
         }
-        return this.straightOrigin(next, color, direction);
+        return this.players[(this.indexOf(this.getCurrentPlayer()) + 1) % this.players.length].getPonderer();
     }
 
-    private int alignedStraight(Cell cell, Color color, Direction direction)
+    private void check(int columnIdx)
     {
-        Objects.requireNonNull(color);
-        Objects.requireNonNull(direction);
-
-        if (cell == null || cell.getColor() != color)
+        if (this.board.isWinningMove(columnIdx))
         {
-            return 0;
+            this.win();
         }
-        Cell next = cell.getNeighbor(direction);
-        return 1 + alignedStraight(next, color, direction);
     }
 
-    private int alignedDiag(Cell cell, Color color, Direction leftRight, Direction upDown)
+    private int aligned(int columnIdx, int side)
     {
-        Objects.requireNonNull(color);
-        Objects.requireNonNull(leftRight);
-        Objects.requireNonNull(upDown);
+        return this.board.alignedIfPlayed(columnIdx, side);
+    }
 
-        if (cell == null || cell.getColor() != color)
+    // a column side would win in right away, or -1
+    private int immediateWin(int side)
+    {
+        if (this.threats != null)
         {
-            return 0;
+            long wins = this.threats.immediateWins(side);
+            return wins == 0 ? -1 : ThreatTracker.column(Long.lowestOneBit(wins));
         }
-        Cell halfNext = cell.getNeighbor(leftRight);
-        if (halfNext == null)
+        for (int col = 0; col < this.rules.getWidth(); col++)
         {
-            return 1;
+            if (this.board.canPlay(col) && this.aligned(col, side) >= this.rules.getConnect())
+            {
+                return col;
+            }
         }
-        Cell next = halfNext.getNeighbor(upDown);
-        return 1 + alignedDiag(next, color, leftRight, upDown);
+        return -1;
     }
 
-    private static class Cell implements Serializable
+    public class C4Player
     {
-        @Serial
-        private static final long serialVersionUID = 1L;
-
-        private final EnumMap<Direction, Cell> neighbors = new EnumMap<>(Direction.class);
+        private final String name;
+        private final Color  color;
 
-        private Color color;
+        C4Player(String name, Color color)
+        {
+            this.name = Objects.requireNonNull(name);
+            this.color = Objects.requireNonNull(color);
+        }
 
-        Cell()
+        String getName()
         {
-            this.color = null;
-            for (Direction direction : Direction.values())
-            {
-                this.neighbors.put(direction, null);
-            }
+            return this.name;
         }
 
         Color getColor()
@@ -477,181 +901,313 @@ public class C4Game implements Serializable
             return this.color;
         }
 
-        void setColor(Color color)
+        String getColorfulName()
         {
-            this.color = Objects.requireNonNull(color);
+            return this.color.paint(this.getName());
         }
 
-        void removeColor()
+        // drops whatever the player remembers from previous moves, which only bots do
+        void forget()
         {
-            this.color = null;
         }
 
-        Cell getNeighbor(Direction direction)
+        // from now on, breaks ties as if it had been built with that seed (see PlayerSpec.withSeed())
+        void reseed(long seed)
         {
-            Objects.requireNonNull(direction);
-            return this.neighbors.get(direction);
         }
 
-        void setNeighbor(Direction direction, Cell cell)
+        // stops the threads the player searches with, if any
+        void shutdown()
         {
-            Objects.requireNonNull(direction);
-            Objects.requireNonNull(cell);
-            this.neighbors.put(direction, cell);
         }
 
-        EnumMap<Direction, Cell> getAllNeighbors()
+        boolean isBot()
         {
-            return this.neighbors;
+            return false;
         }
-    }
 
-    public class C4Player implements Serializable
-    {
-        @Serial
-        private static final long serialVersionUID = 1L;
+        // what searches the position for this player while its opponent thinks, or null if nothing does
+        Ponderer getPonderer()
+        {
+            return null;
+        }
 
-        private final String name;
-        private final Color  color;
+        // what it would take to build this player again
+        PlayerSpec getSpec()
+        {
+            return PlayerSpec.human(this.name);
+        }
 
-        C4Player(String name, Color color)
+        // only bots choose their own moves: humans' are registered by whoever talks to them
+        final int chooseMove()
         {
-            this.name = Objects.requireNonNull(name);
-            this.color = Objects.requireNonNull(color);
+            if (!this.isBot())
+            {
+                throw new UnsupportedOperationException(this.getName() + " is not a bot");
+            }
+            long                 start = System.nanoTime();
+            EngineEvents.BotMove move  = new EngineEvents.BotMove();
+            move.begin();
+            move.player = this.name;
+            move.moves = getBoard().getMoves();
+            move.column = this.think(move);
+            EngineMetrics.botMoved(move, System.nanoTime() - start);
+            return move.column;
         }
 
-        String getName()
+        // a bot's move, with what it took to find it noted in move (see EngineMetrics)
+        int think(EngineEvents.BotMove move)
         {
-            return this.name;
+            throw new UnsupportedOperationException(this.getName() + " is not a bot");
         }
+    }
 
-        Color getColor()
+    private final class C4Player_CPU extends C4Player
+    {
+        private final int                depth;
+        private final int                millis;
+        private final int                threads;
+        private final int                tableMegabytes;
+        private final int                endgameCells;
+        private final boolean            ponders;
+        private final boolean            ntuple;
+        private final TranspositionTable sharedTable;
+        private final Random             random;
+
+        private final ParallelSearch search;
+        private final EndgameSolver  solver;
+        private final Ponderer       ponderer;
+
+        // depth caps how many moves ahead the bot looks, millis how long it may think per move
+        // endgameCells: from how few empty cells on the bot plays perfectly (0 for never)
+        // ponders: whether it searches during its opponent's turn too, when it has a search to share a table with
+        // ntuple: whether its search evaluates positions with the network at NETWORK_PATH, when there is one,
+        // rather than with ThreatTracker
+        // sharedTable: a table other bots use too (null for a table of tableMegabytes of its own)
+        C4Player_CPU(String name,
+                     Color color,
+                     int depth,
+                     int millis,
+                     int threads,
+                     int tableMegabytes,
+                     int endgameCells,
+                     boolean ponders,
+                     boolean ntuple,
+                     TranspositionTable sharedTable,
+                     Random random)
         {
-            return this.color;
+            super(name, color);
+            Objects.requireNonNull(name);
+            Objects.requireNonNull(color);
+            this.depth = depth;
+            this.millis = millis;
+            this.threads = threads;
+            this.tableMegabytes = tableMegabytes;
+            this.endgameCells = endgameCells;
+            this.ponders = ponders;
+            this.ntuple = ntuple;
+            this.sharedTable = sharedTable;
+            this.random = Objects.requireNonNull(random);
+            this.search = this.newSearch();
+            this.solver = this.newSolver();
+            this.ponderer = ponders && this.search != null
+                            ? new Ponderer(depth, this.search.getTable(), this.search.getNetwork())
+                            : null;
         }
 
-        // can be expanded with other colors from com.alexisdrai.util.Misc
-        String getColorfulName()
+        private ParallelSearch newSearch()
         {
-            if (this.color == Color.RED)
+            if (this.depth <= 1 || getPosition() == null)
             {
-                return ANSI_RED + this.getName() + ANSI_RESET;
+                return null; // looking a single move ahead needs no search, and variants cannot be searched
             }
-            if (this.color == Color.YELLOW)
+            ParallelSearch search = new ParallelSearch(this.depth,
+                                                       this.sharedTable != null
+                                                       ? this.sharedTable
+                                                       : new TranspositionTable(this.tableMegabytes),
+                                                       this.millis,
+                                                       Search.UNLIMITED,
+                                                       this.threads);
+            search.setNetwork(this.ntuple ? getNetwork() : null);
+            // a shared table has no single owner to age it: its entries are only replaced by depth
+            search.setAging(this.sharedTable == null);
+            return search;
+        }
+
+        // shares the search's table, whose entries for positions searched to the end of the game it can trust
+        private EndgameSolver newSolver()
+        {
+            if (this.endgameCells == 0 || getPosition() == null)
             {
-                return ANSI_YELLOW + this.getName() + ANSI_RESET;
+                return null;
             }
-            System.out.println("Color " + this.color + " not accounted for in getColorfulName()");
-            return this.getName();
+            // half the bot's time, so that a move the solver gives up on takes one and a half times as long at most
+            EndgameSolver solver = new EndgameSolver(this.search != null
+                                                     ? this.search.getTable()
+                                                     : this.sharedTable != null
+                                                       ? this.sharedTable
+                                                       : new TranspositionTable(this.tableMegabytes),
+                                                     this.millis == 0
+                                                     ? Search.UNLIMITED
+                                                     : Math.max(1, this.millis / 2));
+            solver.setAging(this.sharedTable == null);
+            return solver;
         }
 
-        int chooseMove()
+        private ParallelSearch getSearch()
         {
-            int column = -1;
-            int input;
-            while (1 > column || column > C4Game.TTL_COLS || getTopFreeCells()[column - 1] < 0)
+            return this.search;
+        }
+
+        @Override
+        void forget()
+        {
+            // a shared table is not this bot's to clear, and the solver's is the search's when there is one
+            if (this.sharedTable != null)
             {
-                System.out.printf("%s : please choose a non-full column between 1 and %d%n",
-                                  this.getColorfulName(),
-                                  TTL_COLS);
-                try
-                {
-                    column = scanner.nextInt();
-                } catch (Exception ignored)
-                {
-                    if (scanner.hasNext())
-                    {
-                        input = scanner.next().charAt(0);
-                        switch (input)
-                        {
-                            case ('s') -> {
-                                return SAVE_CODE;
-                            }
-                            case ('l') -> {
-                                return LOAD_CODE;
-                            }
-                            case ('q') -> {
-                                return QUIT_CODE;
-                            }
-                        }
-                        scanner.nextLine();// purging the scanner for the next attempt
-                    }
-                }
+                return;
+            }
+            if (this.search != null)
+            {
+                this.search.clearTable();
+            }
+            else if (this.solver != null)
+            {
+                this.solver.clearTable();
             }
-            return column - 1;// the index of said column
         }
-    }
 
-    private final class C4Player_CPU extends C4Player
-    {
-        @Serial
-        private final static long serialVersionUID = 1L;
-
-        C4Player_CPU(String name, Color color)
+        @Override
+        void reseed(long seed)
         {
-            super(name, color);
-            Objects.requireNonNull(name);
-            Objects.requireNonNull(color);
+            this.random.setSeed(seed);
         }
 
         @Override
-        int chooseMove()
+        void shutdown()
         {
-            System.out.println(this.getColorfulName() + "'s turn");
-            try
+            if (this.search != null)
             {
-                // sleeping to give player a chance to see the board change
-                Thread.sleep(250);
-            } catch (InterruptedException ex)
-            {
-                Thread.currentThread().interrupt();
+                this.search.shutdown();
             }
+        }
 
-            int topFreeIdx, score, otherScore, choiceIdx, blockIdx = -1;
+        @Override
+        boolean isBot()
+        {
+            return true;
+        }
 
-            Cell[][] tmpBoard        = getBoard();
-            int[]    tmpTopFreeCells = getTopFreeCells();
-            int[]    columnScores    = new int[TTL_COLS];
+        @Override
+        PlayerSpec getSpec()
+        {
+            return PlayerSpec.bot(this.depth, this.millis, this.threads)
+                             .withTableMegabytes(this.tableMegabytes)
+                             .withEndgameCells(this.endgameCells)
+                             .withPondering(this.ponders)
+                             .withNetwork(this.ntuple);
+        }
+
+        @Override
+        Ponderer getPonderer()
+        {
+            return this.ponderer;
+        }
 
-            Color otherColor;
-            if (getPlayers()[0].equals(this))
+        @Override
+        int think(EngineEvents.BotMove move)
+        {
+            Position position = getPosition();
+            if (this.solver != null && Position.CELLS - position.getMoves() <= this.endgameCells)
             {
-                otherColor = getPlayers()[1].getColor();
+                Tablebase tablebase = getTablebase();
+                int       tableMove = tablebase == null ? -1 : tablebase.bestMove(position);
+                if (tablebase != null)
+                {
+                    EngineMetrics.tablebaseProbed(tableMove >= 0);
+                }
+                if (tableMove >= 0)
+                {
+                    move.source = "tablebase";
+                    return tableMove;
+                }
+                int col = this.solver.bestMove(position);
+                if (col >= 0)
+                {
+                    move.source = "solver";
+                    move.nodes = this.solver.getNodes();
+                    move.depth = Position.CELLS - position.getMoves();
+                    move.tableProbes = this.solver.getTableProbes();
+                    move.tableHits = this.solver.getTableHits();
+                    return col;
+                }
+                // too many cells left to solve in time: the bot plays as it would with more of them
             }
-            else
+            if (this.getSearch() != null)
             {
-                otherColor = getPlayers()[0].getColor();
+                OpeningBook book     = getBook();
+                int         bookMove = book == null ? -1 : book.bestMove(getPosition());
+                if (book != null)
+                {
+                    EngineMetrics.bookProbed(bookMove >= 0);
+                }
+                if (bookMove >= 0)
+                {
+                    move.source = "book";
+                    return bookMove;
+                }
+                ParallelSearch search = this.getSearch();
+                int            col    = search.bestMove(getPosition());
+                move.source = "search";
+                move.nodes = search.getNodes();
+                move.depth = search.getCompletedDepth();
+                move.tableProbes = search.getTableProbes();
+                move.tableHits = search.getTableHits();
+                return col;
             }
 
-            Objects.requireNonNull(tmpBoard);
-            Objects.requireNonNull(tmpTopFreeCells);
-            Objects.requireNonNull(otherColor);
+            // looking a single move ahead: win if possible, else block whoever plays next (and so on),
+            // else go where lines are longest
+            move.source = "heuristic";
+            move.depth = 1;
+            int width   = getRules().getWidth();
+            int count   = getPlayers().length;
+            int side    = getBoard().getSideToMove();
+            int winIdx  = immediateWin(side);
+            if (winIdx >= 0)
+            {
+                return winIdx;
+            }
+            for (int i = 1; i < count; i++)
+            {
+                int blockIdx = immediateWin((side + i) % count);
+                if (blockIdx >= 0)
+                {
+                    return blockIdx;
+                }
+            }
 
-            for (int i = 0; i < TTL_COLS; i++)
+            int   score, otherScore, choiceIdx;
+            Board tmpBoard     = getBoard();
+            int[] columnScores = new int[width];
+            for (int i = 0; i < width; i++)
             {
-                topFreeIdx = tmpTopFreeCells[i];
-                if (topFreeIdx >= 0)
+                if (tmpBoard.canPlay(i))
                 {
-                    Cell cell = tmpBoard[topFreeIdx][i];
-                    score = testAligned(cell, this.getColor());
-                    otherScore = testAligned(cell, otherColor);
-                    if (score == WIN_CONDITION)
-                    {
-                        return i;
-                    }
-                    if (otherScore == WIN_CONDITION)
+                    score = aligned(i, side);
+                    otherScore = 0;
+                    for (int other = 0; other < count; other++)
                     {
-                        blockIdx = i;
+                        if (other != side)
+                        {
+                            otherScore = Math.max(otherScore, aligned(i, other));
+                        }
                     }
                     columnScores[i] = score + otherScore;
                 }
             }
-            if (blockIdx >= 0)
-            {
-                return blockIdx;
-            }
             boolean allEqual = true;
-            for (int i = 0; i < TTL_COLS - 1; i++)
+            for (int i = 0; i < width - 1; i++)
             {
                 if (!Objects.equals(columnScores[i],
                                     columnScores[i + 1]))
@@ -662,7 +1218,11 @@ public class C4Game implements Serializable
             }
             if (allEqual)
             {
-                choiceIdx = (int) (Math.random() * TTL_COLS);
+                // only playable columns are worth drawing from
+                do
+                {
+                    choiceIdx = this.random.nextInt(width);
+                } while (!tmpBoard.canPlay(choiceIdx));
             }
             else
             {
@@ -670,27 +1230,486 @@ public class C4Game implements Serializable
             }
             return choiceIdx;
         }
+    }
 
-        private int testAligned(Cell cell, Color color)
+    // plays whichever move won the most random games, in any variant: see MonteCarloSearch
+    private final class C4Player_MCTS extends C4Player
+    {
+        private final int playouts;
+        private final int millis;
+        private final int threads;
+        private final int tableMegabytes;
+
+        private final MonteCarloSearch search;
+
+        // playouts and millis bound each move (0 meaning that only the other one does),
+        // tableMegabytes how large the trees of every thread may grow together
+        C4Player_MCTS(String name,
+                      Color color,
+                      int playouts,
+                      int millis,
+                      int threads,
+                      int tableMegabytes,
+                      Random random)
         {
-            Objects.requireNonNull(cell);
-            Objects.requireNonNull(color);
+            super(name, color);
+            this.playouts = playouts;
+            this.millis = millis;
+            this.threads = threads;
+            this.tableMegabytes = tableMegabytes;
+            long nodes = (long) tableMegabytes * (1 << 20) / MonteCarloSearch.NODE_BYTES / threads;
+            this.search = new MonteCarloSearch(getRules(),
+                                               getPlayers().length,
+                                               playouts,
+                                               millis,
+                                               (int) Math.max(getRules().getWidth() + 1,
+                                                              Math.min(nodes, Integer.MAX_VALUE - 8)),
+                                               threads,
+                                               random.nextLong());
+        }
+
+        @Override
+        void forget()
+        {
+            this.search.clear();
+        }
+
+        @Override
+        void reseed(long seed)
+        {
+            // the search's own seed is the first one drawn, as when the player is built
+            this.search.reseed(new Random(seed).nextLong());
+        }
 
-            cell.setColor(color);
-            int score = aligned(cell, color);
-            cell.removeColor();
-            return score;
+        @Override
+        void shutdown()
+        {
+            this.search.shutdown();
+        }
+
+        @Override
+        boolean isBot()
+        {
+            return true;
+        }
+
+        @Override
+        PlayerSpec getSpec()
+        {
+            return PlayerSpec.monteCarlo(this.playouts, this.millis, this.threads)
+                             .withTableMegabytes(this.tableMegabytes);
+        }
+
+        @Override
+        int think(EngineEvents.BotMove move)
+        {
+            int col = this.search.bestMove(getBoard(), C4Game.this.history);
+            move.source = "mcts";
+            move.nodes = this.search.getPlayouts();
+            return col;
         }
     }
 
-    private enum Color
+    // one per player, in turn order
+    enum Color
     {
-        RED, YELLOW
+        RED(ANSI_RED, '#'),
+        YELLOW(ANSI_YELLOW, '@'),
+        GREEN(ANSI_GREEN, '%'),
+        BLUE(ANSI_BLUE, '&'),
+        PURPLE(ANSI_PURPLE, '$'),
+        CYAN(ANSI_CYAN, '*');
+
+        private final String ansi;
+        private final char   symbol;
+
+        Color(String ansi, char symbol)
+        {
+            this.ansi = ansi;
+            this.symbol = symbol;
+        }
+
+        // text in that color, for the console
+        String paint(String text)
+        {
+            return this.ansi + text + ANSI_RESET;
+        }
+
+        // how that color's tokens are drawn
+        char getSymbol()
+        {
+            return this.symbol;
+        }
     }
 
-    private enum Direction
+    // how a player is to be built: either a human's name, or a bot's search settings
+    static final class PlayerSpec
     {
-        UP, RIGHT, DOWN, LEFT
+        private static final String BOT_PATTERN  =
+                "bot( [1-9][0-9]?)?( [1-9][0-9]{0,5}ms)?( [1-9][0-9]?t)?( [0-9]{1,2}e)?( ntuple)?( ponder)?";
+        private static final String MCTS_PATTERN = "mcts( [1-9][0-9]{0,8}p)?( [1-9][0-9]{0,5}ms)?( [1-9][0-9]?t)?";
+
+        private final String             name;
+        private final boolean            monteCarlo;
+        private final int                depth;
+        private final int                playouts;
+        private final int                millis;
+        private final int                threads;
+        private final int                tableMegabytes;
+        private final int                endgameCells;
+        private final boolean            ponders;
+        private final boolean            ntuple;
+        private final TranspositionTable sharedTable;
+        private final Long               seed;
+
+        private PlayerSpec(String name,
+                           boolean monteCarlo,
+                           int depth,
+                           int playouts,
+                           int millis,
+                           int threads,
+                           int tableMegabytes,
+                           int endgameCells,
+                           boolean ponders,
+                           boolean ntuple,
+                           TranspositionTable sharedTable,
+                           Long seed)
+        {
+            this.name = name;
+            this.monteCarlo = monteCarlo;
+            this.depth = depth;
+            this.playouts = playouts;
+            this.millis = millis;
+            this.threads = threads;
+            this.tableMegabytes = tableMegabytes;
+            this.endgameCells = endgameCells;
+            this.ponders = ponders;
+            this.ntuple = ntuple;
+            this.sharedTable = sharedTable;
+            this.seed = seed;
+        }
+
+        static PlayerSpec human(String name)
+        {
+            Objects.requireNonNull(name);
+            if (name.equals(""))
+            {
+                throw new IllegalArgumentException("player names cannot be empty");
+            }
+            return new PlayerSpec(name, false, 0, 0, 0, 0, 0, 0, false, false, null, null);
+        }
+
+        // depth caps how many moves ahead the bot looks, millis how long it may think per move
+        static PlayerSpec bot(int depth, int millis, int threads)
+        {
+            if (depth < 1 || millis < 0 || threads < 1)
+            {
+                throw new IllegalArgumentException(String.format("invalid bot settings: depth %d, %dms, %d threads",
+                                                                 depth,
+                                                                 millis,
+                                                                 threads));
+            }
+            return new PlayerSpec(null,
+                                  false,
+                                  depth,
+                                  0,
+                                  millis,
+                                  threads,
+                                  TABLE_MEGABYTES,
+                                  DEFAULT_ENDGAME_CELLS,
+                                  false,
+                                  false,
+                                  null,
+                                  null);
+        }
+
+        static PlayerSpec bot()
+        {
+            return bot(DEFAULT_SEARCH_DEPTH, DEFAULT_MOVE_MILLIS, DEFAULT_THREADS);
+        }
+
+        // playouts and millis bound each move, 0 meaning that only the other one does
+        static PlayerSpec monteCarlo(int playouts, int millis, int threads)
+        {
+            if (playouts < 0 || millis < 0 || playouts == 0 && millis == 0 || threads < 1)
+            {
+                throw new IllegalArgumentException(String.format("invalid mcts settings: %d playouts, %dms, %d threads",
+                                                                 playouts,
+                                                                 millis,
+                                                                 threads));
+            }
+            return new PlayerSpec(null, true, 0, playouts, millis, threads, TABLE_MEGABYTES, 0, false, false, null, null);
+        }
+
+        /*
+         * a name as typed at the prompt: "bot", optionally followed by a depth, a time budget, a thread count,
+         * from how few empty cells on it plays perfectly, "ntuple" to evaluate positions with the trained network
+         * and "ponder" to search on the opponent's time (e.g. "bot 9 500ms 4t 12e ntuple ponder"),
+         * "mcts", optionally followed by a number of playouts, a time budget and a thread count
+         * (e.g. "mcts 20000p 4t": without a time budget, a number of playouts is the only limit),
+         * or anything else for a human
+         */
+        static PlayerSpec parse(String name)
+        {
+            Objects.requireNonNull(name);
+            if (name.matches(MCTS_PATTERN))
+            {
+                return parseMonteCarlo(name);
+            }
+            if (!name.matches(BOT_PATTERN))
+            {
+                return human(name);
+            }
+            int     depth   = DEFAULT_SEARCH_DEPTH;
+            int     millis  = DEFAULT_MOVE_MILLIS;
+            int     threads = DEFAULT_THREADS;
+            int     endgame = DEFAULT_ENDGAME_CELLS;
+            boolean ponders = false;
+            boolean ntuple  = false;
+            for (String option : name.substring(3).trim().split(" "))
+            {
+                if (option.equals("ponder"))
+                {
+                    ponders = true;
+                }
+                else if (option.equals("ntuple"))
+                {
+                    ntuple = true;
+                }
+                else if (option.endsWith("ms"))
+                {
+                    millis = Integer.parseInt(option.substring(0, option.length() - 2));
+                }
+                else if (option.endsWith("t"))
+                {
+                    threads = Integer.parseInt(option.substring(0, option.length() - 1));
+                }
+                else if (option.endsWith("e"))
+                {
+                    endgame = Integer.parseInt(option.substring(0, option.length() - 1));
+                }
+                else if (!option.isEmpty())
+                {
+                    depth = Integer.parseInt(option);
+                }
+            }
+            return bot(depth, millis, threads).withEndgameCells(endgame)
+                                              .withNetwork(ntuple)
+                                              .withPondering(ponders);
+        }
+
+        private static PlayerSpec parseMonteCarlo(String name)
+        {
+            int playouts = 0;
+            int millis   = -1;
+            int threads  = DEFAULT_THREADS;
+            for (String option : name.substring(4).trim().split(" "))
+            {
+                if (option.endsWith("ms"))
+                {
+                    millis = Integer.parseInt(option.substring(0, option.length() - 2));
+                }
+                else if (option.endsWith("t"))
+                {
+                    threads = Integer.parseInt(option.substring(0, option.length() - 1));
+                }
+                else if (option.endsWith("p"))
+                {
+                    playouts = Integer.parseInt(option.substring(0, option.length() - 1));
+                }
+            }
+            if (millis < 0)
+            {
+                millis = playouts == 0 ? DEFAULT_MOVE_MILLIS : 0;
+            }
+            return monteCarlo(playouts, millis, threads);
+        }
+
+        static PlayerSpec[] parseAll(String... names)
+        {
+            Objects.requireNonNull(names);
+            PlayerSpec[] specs = new PlayerSpec[names.length];
+            for (int i = 0; i < names.length; i++)
+            {
+                specs[i] = parse(names[i]);
+            }
+            return specs;
+        }
+
+        // a bot that breaks ties the same way every time, rather than at random
+        PlayerSpec withSeed(long seed)
+        {
+            return new PlayerSpec(this.name,
+                                  this.monteCarlo,
+                                  this.depth,
+                                  this.playouts,
+                                  this.millis,
+                                  this.threads,
+                                  this.tableMegabytes,
+                                  this.endgameCells,
+                                  this.ponders,
+                                  this.ntuple,
+                                  this.sharedTable,
+                                  seed);
+        }
+
+        PlayerSpec withThreads(int threads)
+        {
+            if (this.isBot() && threads < 1)
+            {
+                throw new IllegalArgumentException("a bot needs at least 1 thread, got " + threads);
+            }
+            return new PlayerSpec(this.name,
+                                  this.monteCarlo,
+                                  this.depth,
+                                  this.playouts,
+                                  this.millis,
+                                  threads,
+                                  this.tableMegabytes,
+                                  this.endgameCells,
+                                  this.ponders,
+                                  this.ntuple,
+                                  this.sharedTable,
+                                  this.seed);
+        }
+
+        // a bot that searches with a table other bots may use at the same time, instead of one of its own
+        // (the table is not saved with the game: a loaded bot gets its own again)
+        PlayerSpec withSharedTable(TranspositionTable table)
+        {
+            return new PlayerSpec(this.name,
+                                  this.monteCarlo,
+                                  this.depth,
+                                  this.playouts,
+                                  this.millis,
+                                  this.threads,
+                                  this.tableMegabytes,
+                                  this.endgameCells,
+                                  this.ponders,
+                                  this.ntuple,
+                                  Objects.requireNonNull(table),
+                                  this.seed);
+        }
+
+        PlayerSpec withTableMegabytes(int tableMegabytes)
+        {
+            if (this.isBot() && tableMegabytes < 1)
+            {
+                throw new IllegalArgumentException("a transposition table needs at least 1 MB, got " + tableMegabytes);
+            }
+            return new PlayerSpec(this.name,
+                                  this.monteCarlo,
+                                  this.depth,
+                                  this.playouts,
+                                  this.millis,
+                                  this.threads,
+                                  tableMegabytes,
+                                  this.endgameCells,
+                                  this.ponders,
+                                  this.ntuple,
+                                  this.sharedTable,
+                                  this.seed);
+        }
+
+        // a bot that plays perfectly once that many cells or fewer are left empty (0 for never)
+        PlayerSpec withEndgameCells(int endgameCells)
+        {
+            if (endgameCells < 0 || endgameCells > Position.CELLS)
+            {
+                throw new IllegalArgumentException("cannot solve positions with " + endgameCells + " empty cells");
+            }
+            return new PlayerSpec(this.name,
+                                  this.monteCarlo,
+                                  this.depth,
+                                  this.playouts,
+                                  this.millis,
+                                  this.threads,
+                                  this.tableMegabytes,
+                                  endgameCells,
+                                  this.ponders,
+                                  this.ntuple,
+                                  this.sharedTable,
+                                  this.seed);
+        }
+
+        // a bot that searches on its opponent's time too (see Ponderer): only alpha-beta bots of the classic game do
+        PlayerSpec withPondering(boolean ponders)
+        {
+            return new PlayerSpec(this.name,
+                                  this.monteCarlo,
+                                  this.depth,
+                                  this.playouts,
+                                  this.millis,
+                                  this.threads,
+                                  this.tableMegabytes,
+                                  this.endgameCells,
+                                  ponders,
+                                  this.ntuple,
+                                  this.sharedTable,
+                                  this.seed);
+        }
+
+        // a bot that evaluates positions with the network trained by NTupleTrainer, if there is one at NETWORK_PATH
+        // (else with ThreatTracker, like other bots): only alpha-beta bots of the classic game have a use for it
+        PlayerSpec withNetwork(boolean ntuple)
+        {
+            return new PlayerSpec(this.name,
+                                  this.monteCarlo,
+                                  this.depth,
+                                  this.playouts,
+                                  this.millis,
+                                  this.threads,
+                                  this.tableMegabytes,
+                                  this.endgameCells,
+                                  this.ponders,
+                                  ntuple,
+                                  this.sharedTable,
+                                  this.seed);
+        }
+
+        boolean isBot()
+        {
+            return this.name == null;
+        }
+
+        boolean isMonteCarlo()
+        {
+            return this.monteCarlo;
+        }
+
+        // the name as it would be typed at the prompt, which parse() reads back into the same player
+        // (save for a bot without a time budget, which cannot be typed, and for table sizes and seeds)
+        @Override
+        public String toString()
+        {
+            if (!this.isBot())
+            {
+                return this.name;
+            }
+            StringBuilder name = new StringBuilder(this.monteCarlo ? "mcts" : "bot " + this.depth);
+            if (this.playouts > 0)
+            {
+                name.append(' ').append(this.playouts).append('p');
+            }
+            if (this.millis > 0)
+            {
+                name.append(' ').append(this.millis).append("ms");
+            }
+            name.append(' ').append(this.threads).append('t');
+            if (!this.monteCarlo)
+            {
+                name.append(' ').append(this.endgameCells).append('e');
+            }
+            if (this.ntuple)
+            {
+                name.append(" ntuple");
+            }
+            if (this.ponders)
+            {
+                name.append(" ponder");
+            }
+            return name.toString();
+        }
     }
 
     private static class FullColumnException extends IllegalArgumentException
@@ -716,17 +1735,4 @@ public class C4Game implements Serializable
                                 columnIdx));
         }
     }
-
-    private static class InvalidDiagonalException extends IllegalArgumentException
-    {
-        @Serial
-        private static final long serialVersionUID = 1L;
-
-        InvalidDiagonalException(Direction leftRight, Direction upDown)
-        {
-            super(String.format("%s + %s is not a valid diagonal",
-                                Objects.requireNonNull(leftRight),
-                                Objects.requireNonNull(upDown)));
-        }
-    }
 }
@@ -0,0 +1,269 @@
+package com.alexisdrai.connect4;
+
+import java.util.Objects;
+
+/*
+ * exact negamax down to the end of the game: no depth and no evaluation, so that the score it returns is
+ * the real outcome of the position with perfect play, in Search's scale (WIN_SCORE plus the cells left empty by a win,
+ * 0 for a draw). only worth it once few cells are left: the cost grows exponentially with them.
+ * with a time budget, it gives up on positions it cannot solve in time rather than answer anything less than exact
+ *
+ * on top of alpha-beta, the window is narrowed to what can still happen (no win before the side to move's next turn,
+ * no loss before the opponent's), a single threat of the opponent must be blocked, and two of them lose.
+ * results go to an optional TranspositionTable as searched to the end, which Search may share and trust
+ */
+final class EndgameSolver
+{
+    private static final int INFINITY    = Search.WIN_SCORE + Position.CELLS + 1;
+    // how many nodes go by between two looks at the clock
+    private static final int CLOCK_CHECK = 1023;
+
+    private final TranspositionTable table;
+    private final long               budgetNanos;
+    private final Position           position = new Position();
+    private final ThreatTracker      threats  = new ThreatTracker();
+
+    private long    nodes;
+    private long    tableProbes;
+    private long    tableHits;
+    private int     score;
+    private long    deadline;
+    private boolean aborted;
+    private boolean aging = true;
+
+    EndgameSolver(TranspositionTable table)
+    {
+        this(table, Search.UNLIMITED);
+    }
+
+    // millis bounds each call to bestMove(), Search.UNLIMITED meaning that it never gives up
+    EndgameSolver(TranspositionTable table, long millis)
+    {
+        if (millis < 0)
+        {
+            throw new IllegalArgumentException("negative solver budget: " + millis);
+        }
+        this.table = table;
+        this.budgetNanos = millis * 1_000_000L;
+    }
+
+    // see Search.setAging()
+    void setAging(boolean aging)
+    {
+        this.aging = aging;
+    }
+
+    void clearTable()
+    {
+        this.table.clear();
+    }
+
+    // number of positions visited by the last call to bestMove()
+    long getNodes()
+    {
+        return this.nodes;
+    }
+
+    // look-ups of the transposition table by the last call to bestMove(), and how many found their position
+    long getTableProbes()
+    {
+        return this.tableProbes;
+    }
+
+    long getTableHits()
+    {
+        return this.tableHits;
+    }
+
+    // exact score of the column returned by the last call to bestMove()
+    int getScore()
+    {
+        return this.score;
+    }
+
+    // -1 if the position could not be solved within the budget
+    int bestMove(Position root)
+    {
+        Objects.requireNonNull(root);
+        if (root.isFull())
+        {
+            throw new IllegalStateException("no playable column left -- the game should already be over");
+        }
+        this.nodes = 0;
+        this.tableProbes = 0;
+        this.tableHits = 0;
+        this.aborted = false;
+        this.deadline = this.budgetNanos == Search.UNLIMITED ? Long.MAX_VALUE : System.nanoTime() + this.budgetNanos;
+        if (this.table != null && this.aging)
+        {
+            this.table.newSearch();
+        }
+        this.position.copy(root);
+        this.threats.set(root);
+
+        long wins = this.threats.immediateWins(root.getSideToMove());
+        if (wins != 0)
+        {
+            this.score = win(root.getMoves());
+            return ThreatTracker.column(Long.lowestOneBit(wins));
+        }
+        int bestCol = -1;
+        int alpha   = -INFINITY;
+        for (int col : Search.COLUMN_ORDER)
+        {
+            if (!root.canPlay(col))
+            {
+                continue;
+            }
+            this.play(col);
+            int score = -this.negamax(-INFINITY, -alpha);
+            this.undo(col);
+            if (this.aborted)
+            {
+                return -1;
+            }
+            if (bestCol < 0 || score > alpha)
+            {
+                bestCol = col;
+                alpha = score;
+            }
+        }
+        this.score = alpha;
+        return bestCol;
+    }
+
+    // exact score of this.position if it lies within (alpha, beta), else a bound on the side it fell
+    private int negamax(int alpha, int beta)
+    {
+        Position position = this.position;
+        this.nodes++;
+        if ((this.nodes & CLOCK_CHECK) == 0 && System.nanoTime() > this.deadline)
+        {
+            this.aborted = true;
+        }
+        if (this.aborted)
+        {
+            return 0; // meaningless, and never stored: every caller gives up too
+        }
+
+        int moves = position.getMoves();
+        if (position.isFull())
+        {
+            return 0;
+        }
+        int side = position.getSideToMove();
+        if (this.threats.immediateWins(side) != 0)
+        {
+            return win(moves);
+        }
+        long losses = this.threats.immediateWins(1 - side);
+        if (Long.bitCount(losses) > 1)
+        {
+            return -win(moves + 1);
+        }
+        // at best a win on the next turn, at worst a loss on the opponent's next one
+        beta = Math.min(beta, win(moves + 2));
+        alpha = Math.max(alpha, -win(moves + 1));
+        if (alpha >= beta)
+        {
+            return alpha;
+        }
+
+        // mirror images share their entries, columns being stored as played on the one the key belongs to
+        long    key      = position.canonicalKey();
+        boolean mirrored = position.isMirrored();
+        int     depth    = Position.CELLS - moves;
+        int     ttMove   = -1;
+        if (this.table != null)
+        {
+            long data = this.table.probe(key);
+            this.tableProbes++;
+            if (data != TranspositionTable.MISS)
+            {
+                this.tableHits++;
+                ttMove = TranspositionTable.move(data);
+                if (mirrored && ttMove >= 0)
+                {
+                    ttMove = Position.mirror(ttMove);
+                }
+                if (TranspositionTable.depth(data) >= depth)
+                {
+                    int score = TranspositionTable.score(data);
+                    switch (TranspositionTable.flag(data))
+                    {
+                        case (TranspositionTable.EXACT) -> {
+                            return score;
+                        }
+                        case (TranspositionTable.LOWER) -> alpha = Math.max(alpha, score);
+                        case (TranspositionTable.UPPER) -> beta = Math.min(beta, score);
+                    }
+                    if (alpha >= beta)
+                    {
+                        return score;
+                    }
+                }
+            }
+        }
+
+        // a threat of the opponent leaves a single column worth playing
+        int forced        = losses != 0 ? ThreatTracker.column(losses) : -1;
+        int originalAlpha = alpha;
+        int best          = -INFINITY;
+        int bestCol       = -1;
+        for (int i = -1; i < Position.WIDTH; i++)
+        {
+            int col = i < 0 ? (forced >= 0 ? forced : ttMove) : Search.COLUMN_ORDER[i];
+            if (col < 0 || (i >= 0 && (forced >= 0 || col == ttMove)) || !position.canPlay(col))
+            {
+                continue;
+            }
+            this.play(col);
+            int score = -this.negamax(-beta, -alpha);
+            this.undo(col);
+            if (this.aborted)
+            {
+                return 0;
+            }
+            if (score > best)
+            {
+                best = score;
+                bestCol = col;
+            }
+            if (score > alpha)
+            {
+                alpha = score;
+            }
+            if (alpha >= beta)
+            {
+                break;
+            }
+        }
+
+        if (this.table != null)
+        {
+            int flag = best <= originalAlpha ? TranspositionTable.UPPER
+                       : best >= beta ? TranspositionTable.LOWER
+                       : TranspositionTable.EXACT;
+            this.table.store(key, depth, best, flag, mirrored && bestCol >= 0 ? Position.mirror(bestCol) : bestCol);
+        }
+        return best;
+    }
+
+    // score of winning with the winning move about to be played at that move count
+    private static int win(int moves)
+    {
+        return Search.WIN_SCORE + Position.CELLS - moves;
+    }
+
+    private void play(int col)
+    {
+        this.position.play(col);
+        this.threats.play(col);
+    }
+
+    private void undo(int col)
+    {
+        this.position.undo(col);
+        this.threats.undo(col);
+    }
+}
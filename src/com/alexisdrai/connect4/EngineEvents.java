@@ -0,0 +1,109 @@
+package com.alexisdrai.connect4;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/*
+ * custom Flight Recorder events, recorded along with the JVM's own when a recording is running
+ * (e.g. java -XX:StartFlightRecording=filename=connect4.jfr ...), and all but free otherwise:
+ * begin() and commit() do nothing for an event that no recording wants, and the one event of every move is not even
+ * created then (see moveRegistered())
+ */
+final class EngineEvents
+{
+    private static final EventType MOVE_REGISTERED = EventType.getEventType(MoveRegistered.class);
+
+    private EngineEvents()
+    {
+    }
+
+    // a MoveRegistered event, begun, or null if no recording wants it
+    static MoveRegistered moveRegistered()
+    {
+        if (!MOVE_REGISTERED.isEnabled())
+        {
+            return null;
+        }
+        MoveRegistered event = new MoveRegistered();
+        event.begin();
+        return event;
+    }
+
+    @Name("com.alexisdrai.connect4.BotMove")
+    @Label("Bot Move")
+    @Category("Connect 4")
+    @Description("A bot choosing its move, and what it took")
+    @StackTrace(false)
+    static final class BotMove extends Event
+    {
+        @Label("Player")
+        String player;
+
+        @Label("Source")
+        @Description("Where the move came from: book, tablebase, solver, search, heuristic or mcts")
+        String source;
+
+        @Label("Column")
+        int column;
+
+        @Label("Moves Played")
+        int moves;
+
+        @Label("Nodes")
+        @Description("Positions searched, or playouts for a Monte Carlo bot")
+        long nodes;
+
+        @Label("Completed Depth")
+        int depth;
+
+        @Label("Table Probes")
+        long tableProbes;
+
+        @Label("Table Hits")
+        long tableHits;
+    }
+
+    // only slow ones are recorded by default, e.g. when the journal has to hit the disk
+    @Name("com.alexisdrai.connect4.MoveRegistered")
+    @Label("Move Registered")
+    @Category("Connect 4")
+    @Description("C4Game.registerMove(), when it takes longer than the threshold")
+    @Threshold("1 ms")
+    static final class MoveRegistered extends Event
+    {
+        @Label("Column")
+        int column;
+
+        @Label("Moves Played")
+        int moves;
+
+        @Label("Journaled")
+        boolean journaled;
+    }
+
+    @Name("com.alexisdrai.connect4.GameCompleted")
+    @Label("Game Completed")
+    @Category("Connect 4")
+    @StackTrace(false)
+    static final class GameCompleted extends Event
+    {
+        @Label("Rules")
+        String rules;
+
+        @Label("Players")
+        String players;
+
+        @Label("Winner")
+        @Description("Name of the winner, or null for a draw")
+        String winner;
+
+        @Label("Moves Played")
+        int moves;
+    }
+}
@@ -0,0 +1,304 @@
+package com.alexisdrai.connect4;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/*
+ * process-wide counters of what the engine does, for capacity planning and chasing latency spikes:
+ * bot moves (nodes searched, cache hit rates, latencies), registerMove() latencies, sessions and games.
+ * published through JMX once register() was called, which GameServer always does, and Main with -Dconnect4.metrics
+ *
+ * per-move counting is off unless -Dconnect4.metrics=true, or until it is switched on through JMX:
+ * while off, the hot paths cost a single flag check. sessions and games are few, so they are always counted.
+ * every counter may be bumped from any thread without locking (LongAdder, LatencyHistogram)
+ *
+ * the same moves also go to Flight Recorder, see EngineEvents
+ */
+final class EngineMetrics implements EngineMetricsMBean
+{
+    static final String OBJECT_NAME = "com.alexisdrai.connect4:type=EngineMetrics";
+
+    private static final EngineMetrics INSTANCE = new EngineMetrics();
+
+    // read on every move, so it is kept apart from the counters
+    private static volatile boolean counting = Boolean.getBoolean("connect4.metrics");
+    private static boolean          registered;
+
+    private final LongAdder botMoves        = new LongAdder();
+    private final LongAdder nodes           = new LongAdder();
+    private final LongAdder thinkingNanos   = new LongAdder();
+    private final LongAdder tableProbes     = new LongAdder();
+    private final LongAdder tableHits       = new LongAdder();
+    private final LongAdder bookProbes      = new LongAdder();
+    private final LongAdder bookHits        = new LongAdder();
+    private final LongAdder tablebaseProbes = new LongAdder();
+    private final LongAdder tablebaseHits   = new LongAdder();
+    private final LongAdder registeredMoves = new LongAdder();
+    private final LongAdder activeSessions  = new LongAdder();
+    private final LongAdder gamesCompleted  = new LongAdder();
+
+    private final LatencyHistogram moveLatencies     = new LatencyHistogram();
+    private final LatencyHistogram registerLatencies = new LatencyHistogram();
+
+    private EngineMetrics()
+    {
+    }
+
+    // publishes the metrics to the platform MBean server, once per process
+    static synchronized void register()
+    {
+        if (registered)
+        {
+            return;
+        }
+        try
+        {
+            ManagementFactory.getPlatformMBeanServer()
+                             .registerMBean(new StandardMBean(INSTANCE, EngineMetricsMBean.class),
+                                            new ObjectName(OBJECT_NAME));
+        } catch (InstanceAlreadyExistsException ignored)
+        {
+            // published by another copy of these classes, e.g. from another class loader
+        } catch (JMException e)
+        {
+            throw new IllegalStateException("could not publish the engine metrics", e);
+        }
+        registered = true;
+    }
+
+    // whether moves are being counted, for callers to skip timing them otherwise
+    static boolean isCounting()
+    {
+        return counting;
+    }
+
+    // a bot's move, which took nanos to choose: counted, and committed to Flight Recorder if a recording wants it
+    static void botMoved(EngineEvents.BotMove move, long nanos)
+    {
+        if (counting)
+        {
+            EngineMetrics metrics = INSTANCE;
+            metrics.botMoves.increment();
+            metrics.nodes.add(move.nodes);
+            metrics.thinkingNanos.add(nanos);
+            metrics.tableProbes.add(move.tableProbes);
+            metrics.tableHits.add(move.tableHits);
+            metrics.moveLatencies.record(nanos);
+        }
+        if (move.shouldCommit())
+        {
+            move.commit();
+        }
+    }
+
+    static void bookProbed(boolean hit)
+    {
+        if (counting)
+        {
+            INSTANCE.bookProbes.increment();
+            if (hit)
+            {
+                INSTANCE.bookHits.increment();
+            }
+        }
+    }
+
+    static void tablebaseProbed(boolean hit)
+    {
+        if (counting)
+        {
+            INSTANCE.tablebaseProbes.increment();
+            if (hit)
+            {
+                INSTANCE.tablebaseHits.increment();
+            }
+        }
+    }
+
+    // only timed while counting (see isCounting())
+    static void moveRegistered(long nanos)
+    {
+        INSTANCE.registeredMoves.increment();
+        INSTANCE.registerLatencies.record(nanos);
+    }
+
+    static void gameCompleted()
+    {
+        INSTANCE.gamesCompleted.increment();
+    }
+
+    static void sessionOpened()
+    {
+        INSTANCE.activeSessions.increment();
+    }
+
+    static void sessionClosed()
+    {
+        INSTANCE.activeSessions.decrement();
+    }
+
+    @Override
+    public boolean isEnabled()
+    {
+        return counting;
+    }
+
+    @Override
+    public void setEnabled(boolean enabled)
+    {
+        counting = enabled;
+    }
+
+    @Override
+    public long getBotMoves()
+    {
+        return this.botMoves.sum();
+    }
+
+    @Override
+    public long getNodes()
+    {
+        return this.nodes.sum();
+    }
+
+    @Override
+    public double getNodesPerSecond()
+    {
+        long nanos = this.thinkingNanos.sum();
+        return nanos == 0 ? 0 : this.nodes.sum() * 1e9 / nanos;
+    }
+
+    @Override
+    public long getTableProbes()
+    {
+        return this.tableProbes.sum();
+    }
+
+    @Override
+    public double getTableHitRate()
+    {
+        return rate(this.tableHits, this.tableProbes);
+    }
+
+    @Override
+    public long getBookProbes()
+    {
+        return this.bookProbes.sum();
+    }
+
+    @Override
+    public double getBookHitRate()
+    {
+        return rate(this.bookHits, this.bookProbes);
+    }
+
+    @Override
+    public long getTablebaseProbes()
+    {
+        return this.tablebaseProbes.sum();
+    }
+
+    @Override
+    public double getTablebaseHitRate()
+    {
+        return rate(this.tablebaseHits, this.tablebaseProbes);
+    }
+
+    @Override
+    public double getMoveLatencyMeanMicros()
+    {
+        return this.moveLatencies.getMean() / 1e3;
+    }
+
+    @Override
+    public double getMoveLatencyP50Micros()
+    {
+        return this.moveLatencies.getPercentile(50) / 1e3;
+    }
+
+    @Override
+    public double getMoveLatencyP99Micros()
+    {
+        return this.moveLatencies.getPercentile(99) / 1e3;
+    }
+
+    @Override
+    public double getMoveLatencyMaxMicros()
+    {
+        return this.moveLatencies.getMax() / 1e3;
+    }
+
+    @Override
+    public long getRegisteredMoves()
+    {
+        return this.registeredMoves.sum();
+    }
+
+    @Override
+    public double getRegisterMoveLatencyMeanMicros()
+    {
+        return this.registerLatencies.getMean() / 1e3;
+    }
+
+    @Override
+    public double getRegisterMoveLatencyP50Micros()
+    {
+        return this.registerLatencies.getPercentile(50) / 1e3;
+    }
+
+    @Override
+    public double getRegisterMoveLatencyP99Micros()
+    {
+        return this.registerLatencies.getPercentile(99) / 1e3;
+    }
+
+    @Override
+    public double getRegisterMoveLatencyMaxMicros()
+    {
+        return this.registerLatencies.getMax() / 1e3;
+    }
+
+    @Override
+    public long getActiveSessions()
+    {
+        return this.activeSessions.sum();
+    }
+
+    @Override
+    public long getGamesCompleted()
+    {
+        return this.gamesCompleted.sum();
+    }
+
+    @Override
+    public void reset()
+    {
+        for (LongAdder counter : new LongAdder[] {this.botMoves,
+                                                  this.nodes,
+                                                  this.thinkingNanos,
+                                                  this.tableProbes,
+                                                  this.tableHits,
+                                                  this.bookProbes,
+                                                  this.bookHits,
+                                                  this.tablebaseProbes,
+                                                  this.tablebaseHits,
+                                                  this.registeredMoves,
+                                                  this.gamesCompleted})
+        {
+            counter.reset();
+        }
+        this.moveLatencies.reset();
+        this.registerLatencies.reset();
+    }
+
+    private static double rate(LongAdder hits, LongAdder probes)
+    {
+        long total = probes.sum();
+        return total == 0 ? 0 : (double) hits.sum() / total;
+    }
+}
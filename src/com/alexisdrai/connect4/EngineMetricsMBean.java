@@ -0,0 +1,56 @@
+package com.alexisdrai.connect4;
+
+/*
+ * what EngineMetrics shows through JMX (e.g. in jconsole, under com.alexisdrai.connect4:type=EngineMetrics):
+ * public, as JMX only publishes public interfaces. latencies are in microseconds, rates between 0 and 1
+ */
+public interface EngineMetricsMBean
+{
+    boolean isEnabled();
+
+    // counting costs a few nanoseconds per move, and nothing but a flag check while disabled
+    void setEnabled(boolean enabled);
+
+    long getBotMoves();
+
+    long getNodes();
+
+    double getNodesPerSecond();
+
+    long getTableProbes();
+
+    double getTableHitRate();
+
+    long getBookProbes();
+
+    double getBookHitRate();
+
+    long getTablebaseProbes();
+
+    double getTablebaseHitRate();
+
+    double getMoveLatencyMeanMicros();
+
+    double getMoveLatencyP50Micros();
+
+    double getMoveLatencyP99Micros();
+
+    double getMoveLatencyMaxMicros();
+
+    long getRegisteredMoves();
+
+    double getRegisterMoveLatencyMeanMicros();
+
+    double getRegisterMoveLatencyP50Micros();
+
+    double getRegisterMoveLatencyP99Micros();
+
+    double getRegisterMoveLatencyMaxMicros();
+
+    long getActiveSessions();
+
+    long getGamesCompleted();
+
+    // sets every count and latency back to 0, except active sessions, which are a gauge
+    void reset();
+}
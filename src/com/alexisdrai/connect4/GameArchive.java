@@ -0,0 +1,578 @@
+package com.alexisdrai.connect4;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+/*
+ * append-only archive of finished games, for as many of them as self-play can throw at it
+ *
+ * games go one after the other to the data file, and the offset each one ends at goes to an index file next to it,
+ * so that game i lies between entries i - 1 and i of the index. reads memory-map the index and the data a window
+ * of whole games at a time: going through any range of games never maps more than CHUNK_BYTES of either,
+ * and puts nothing on the heap but what the caller keeps of them.
+ * appends are not synced to disk one by one: opening the archive again drops whatever a crash left half-written,
+ * and indexes the games that made it to the data file but not to the index
+ *
+ * data layout (big endian): MAGIC (int), VERSION (int), then for each game
+ *  when it was archived (long: milliseconds since the epoch)
+ *  columns, rows and tokens to connect (bytes, see Rules)
+ *  number of players (byte), then for each of them, in turn order, the length (byte) and UTF-8 bytes of how it is
+ *  typed at the prompt (a human's name, or e.g. "bot 9 250ms 1t 16e", see PlayerSpec.toString())
+ *  result (byte): 0 for a draw, else 1 + the winner's index in turn order
+ *  number of moves (unsigned short), then their columns, MOVE_BITS each, the first one in the highest bits of the
+ *  first byte: only games on boards of up to MAX_WIDTH columns fit
+ * index layout: the offset right after each game (long, big endian), and nothing else
+ *
+ * usage: java -cp build com.alexisdrai.connect4.GameArchive [file] [count | openings <plies> | list <from> <to>]
+ * e.g.   java -cp build com.alexisdrai.connect4.GameArchive games.c4a openings 2
+ */
+public final class GameArchive implements AutoCloseable
+{
+    static final Path DEFAULT_PATH = Paths.get(".").resolve("games.c4a");
+
+    static final int MAGIC     = 0x43344741; // "C4GA"
+    static final int VERSION   = 1;
+    static final int MOVE_BITS = 3;
+    static final int MAX_WIDTH = 1 << MOVE_BITS;
+
+    private static final int  HEADER_BYTES   = 2 * Integer.BYTES;
+    // time, rules, number of players, result and number of moves: what a game takes besides names and moves
+    private static final int  FIXED_BYTES    = Long.BYTES + 3 + 1 + 1 + Short.BYTES;
+    private static final int  MAX_NAME_BYTES = 0xFF;
+    private static final int  MAX_MOVES      = 0xFFFF;
+    private static final long CHUNK_BYTES    = 64L << 20;
+
+    private final FileChannel data;
+    private final FileChannel index;
+
+    // games archived so far, and where the next one goes
+    private long size;
+    private long end;
+
+    private GameArchive(FileChannel data, FileChannel index)
+    {
+        this.data = data;
+        this.index = index;
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        Path   path    = args.length > 0 ? Paths.get(args[0]) : DEFAULT_PATH;
+        String command = args.length > 1 ? args[1] : "count";
+
+        try (GameArchive archive = open(path))
+        {
+            switch (command)
+            {
+                case "count" -> System.out.println(archive.size() + " games");
+                case "openings" -> printOpenings(archive.tally(0,
+                                                               archive.size(),
+                                                               args.length > 2 ? Integer.parseInt(args[2]) : 1));
+                case "list" -> archive.scan(args.length > 2 ? Long.parseLong(args[2]) : 0,
+                                            args.length > 3 ? Long.parseLong(args[3]) : archive.size(),
+                                            (i, game) -> System.out.println(i + " " + game));
+                default -> throw new IllegalArgumentException("unknown command: " + command);
+            }
+        }
+    }
+
+    // opens the archive at path, or creates an empty one there
+    static GameArchive open(Path path) throws IOException
+    {
+        Objects.requireNonNull(path);
+        FileChannel data  = FileChannel.open(path,
+                                             StandardOpenOption.CREATE,
+                                             StandardOpenOption.READ,
+                                             StandardOpenOption.WRITE);
+        FileChannel index = null;
+        try
+        {
+            if (data.size() == 0)
+            {
+                write(data, ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC).putInt(VERSION).flip(), 0);
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            data.read(header, 0);
+            header.flip();
+            if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC || header.getInt() != VERSION)
+            {
+                throw new IOException(path + " is not a version " + VERSION + " game archive");
+            }
+            index = FileChannel.open(indexPath(path),
+                                     StandardOpenOption.CREATE,
+                                     StandardOpenOption.READ,
+                                     StandardOpenOption.WRITE);
+            GameArchive archive = new GameArchive(data, index);
+            archive.recover();
+            return archive;
+        } catch (IOException | RuntimeException e)
+        {
+            data.close();
+            if (index != null)
+            {
+                index.close();
+            }
+            throw e;
+        }
+    }
+
+    static Path indexPath(Path path)
+    {
+        return path.resolveSibling(path.getFileName() + ".idx");
+    }
+
+    // whether games played by those rules fit the archive
+    static boolean fits(Rules rules)
+    {
+        return rules.getWidth() <= MAX_WIDTH && rules.getCells() <= MAX_MOVES;
+    }
+
+    // number of games in the archive
+    synchronized long size()
+    {
+        return this.size;
+    }
+
+    // adds a finished game to the end of the archive
+    synchronized void append(C4Game game) throws IOException
+    {
+        Objects.requireNonNull(game);
+        Rules rules = game.getRules();
+        if (!game.isOver())
+        {
+            throw new IllegalArgumentException("only finished games can be archived");
+        }
+        if (!fits(rules))
+        {
+            throw new IllegalArgumentException("only games on up to " + MAX_WIDTH + " columns can be archived");
+        }
+        C4Game.C4Player[] players = game.getPlayers();
+        byte[][]          names   = new byte[players.length][];
+        byte[]            moves   = game.getMoves();
+        int               bytes   = FIXED_BYTES + packedBytes(moves.length);
+        for (int i = 0; i < players.length; i++)
+        {
+            names[i] = truncate(players[i].getSpec().toString().getBytes(StandardCharsets.UTF_8), MAX_NAME_BYTES);
+            bytes += 1 + names[i].length;
+        }
+
+        ByteBuffer record = ByteBuffer.allocate(bytes);
+        record.putLong(System.currentTimeMillis());
+        record.put((byte) rules.getWidth()).put((byte) rules.getHeight()).put((byte) rules.getConnect());
+        record.put((byte) players.length);
+        for (byte[] name : names)
+        {
+            record.put((byte) name.length).put(name);
+        }
+        C4Game.C4Player winner = game.getWinner();
+        record.put((byte) (winner == null ? 0 : 1 + game.indexOf(winner)));
+        record.putShort((short) moves.length);
+        pack(moves, record);
+
+        // the game first, then where it ends: an indexed game is always all there
+        write(this.data, record.flip(), this.end);
+        this.indexEnd(this.end + bytes);
+    }
+
+    /*
+     * calls visitor with every game from from (included) to to (excluded), in order.
+     * the Game it gets is the same object every time, only valid until visit() returns
+     */
+    void scan(long from, long to, Visitor visitor) throws IOException
+    {
+        Objects.requireNonNull(visitor);
+        long size = this.size();
+        if (from < 0 || to > size || from > to)
+        {
+            throw new IllegalArgumentException(String.format("no games %d to %d in an archive of %d", from, to, size));
+        }
+        Game game  = new Game();
+        long i     = from;
+        long start = from == 0 ? HEADER_BYTES : this.readEnd(from - 1);
+        while (i < to)
+        {
+            // the ends of the next games, then as many of those games as fit in a chunk, and at least one
+            long       entries = Math.min(to - i, CHUNK_BYTES / Long.BYTES);
+            LongBuffer ends    = this.index.map(FileChannel.MapMode.READ_ONLY, i * Long.BYTES, entries * Long.BYTES)
+                                           .asLongBuffer();
+            int games = 1;
+            while (games < entries && ends.get(games) - start <= CHUNK_BYTES)
+            {
+                games++;
+            }
+            long       chunkEnd = ends.get(games - 1);
+            ByteBuffer chunk    = this.data.map(FileChannel.MapMode.READ_ONLY, start, chunkEnd - start);
+            for (int j = 0; j < games; j++, i++)
+            {
+                if (!game.read(chunk))
+                {
+                    throw new IllegalStateException("game " + i + " of the archive is corrupted");
+                }
+                visitor.visit(i, game);
+            }
+            start = chunkEnd;
+        }
+    }
+
+    /*
+     * how games from from to to went, by their first plies moves (fewer for shorter games), as Game.getOpening()
+     * gives them. with 0 plies, that is one tally for all of them, under ""
+     */
+    Map<String, Tally> tally(long from, long to, int plies) throws IOException
+    {
+        if (plies < 0)
+        {
+            throw new IllegalArgumentException("cannot tally games by their first " + plies + " moves");
+        }
+        Map<String, Tally> tallies = new TreeMap<>();
+        this.scan(from, to, (i, game) -> tallies.computeIfAbsent(game.getOpening(plies), opening -> new Tally())
+                                                .add(game));
+        return tallies;
+    }
+
+    @Override
+    public synchronized void close() throws IOException
+    {
+        try (this.data; this.index)
+        {
+            this.data.force(true);
+            this.index.force(true);
+        }
+    }
+
+    // sets size and end, having made the index and the data agree
+    private void recover() throws IOException
+    {
+        long entries = this.index.size() / Long.BYTES;
+        long dataEnd = this.data.size();
+        // the last few entries may point past the data, if a crash kept it from being written
+        while (entries > 0 && this.readEnd(entries - 1) > dataEnd)
+        {
+            entries--;
+        }
+        this.index.truncate(entries * Long.BYTES);
+        this.size = entries;
+        this.end = entries == 0 ? HEADER_BYTES : this.readEnd(entries - 1);
+
+        // and games may follow the last indexed one: the whole ones are indexed, and everything from the first one
+        // that is not (a crash mid-append) dropped
+        Game game = new Game();
+        while (this.end < dataEnd)
+        {
+            ByteBuffer rest = this.data.map(FileChannel.MapMode.READ_ONLY,
+                                            this.end,
+                                            Math.min(dataEnd - this.end, CHUNK_BYTES));
+            long       base = this.end;
+            if (!game.read(rest))
+            {
+                break;
+            }
+            do
+            {
+                this.indexEnd(base + rest.position());
+            } while (game.read(rest));
+        }
+        this.data.truncate(this.end);
+    }
+
+    // the game just written ends at end
+    private void indexEnd(long end) throws IOException
+    {
+        write(this.index, ByteBuffer.allocate(Long.BYTES).putLong(end).flip(), this.size * Long.BYTES);
+        this.size++;
+        this.end = end;
+    }
+
+    private long readEnd(long entry) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
+        while (buffer.hasRemaining() && this.index.read(buffer, entry * Long.BYTES + buffer.position()) >= 0)
+        {
+            // until the whole entry is read
+        }
+        return buffer.flip().getLong();
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer, long position) throws IOException
+    {
+        while (buffer.hasRemaining())
+        {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    // at most max bytes of utf8, cut before a whole code point rather than in the middle of one
+    private static byte[] truncate(byte[] utf8, int max)
+    {
+        if (utf8.length <= max)
+        {
+            return utf8;
+        }
+        int end = max;
+        while (end > 0 && (utf8[end] & 0xC0) == 0x80)
+        {
+            end--; // utf8[end] continues a code point that would be split
+        }
+        return Arrays.copyOf(utf8, end);
+    }
+
+    private static int packedBytes(int moves)
+    {
+        return (moves * MOVE_BITS + Byte.SIZE - 1) / Byte.SIZE;
+    }
+
+    private static void pack(byte[] moves, ByteBuffer out)
+    {
+        int bits  = 0;
+        int count = 0;
+        for (byte move : moves)
+        {
+            bits = bits << MOVE_BITS | move;
+            count += MOVE_BITS;
+            if (count >= Byte.SIZE)
+            {
+                count -= Byte.SIZE;
+                out.put((byte) (bits >>> count));
+            }
+        }
+        if (count > 0)
+        {
+            out.put((byte) (bits << (Byte.SIZE - count)));
+        }
+    }
+
+    private static void printOpenings(Map<String, Tally> tallies)
+    {
+        System.out.println("opening     games  length  wins by turn order (%), then draws (%)");
+        for (Map.Entry<String, Tally> entry : tallies.entrySet())
+        {
+            Tally         tally = entry.getValue();
+            StringBuilder line  = new StringBuilder(String.format(Locale.ROOT,
+                                                                  "%-8s %8d %7.1f ",
+                                                                  entry.getKey().isEmpty() ? "-" : entry.getKey(),
+                                                                  tally.getGames(),
+                                                                  tally.getAverageLength()));
+            for (int player = 0; player < tally.getPlayerCount(); player++)
+            {
+                line.append(String.format(Locale.ROOT, " %5.1f", 100 * tally.getWinRate(player)));
+            }
+            line.append(String.format(Locale.ROOT, " %5.1f", 100 * tally.getDrawRate()));
+            System.out.println(line);
+        }
+    }
+
+    interface Visitor
+    {
+        void visit(long index, Game game) throws IOException;
+    }
+
+    // one archived game, read in place from a mapped window of the archive
+    static final class Game
+    {
+        private final int[] nameOffsets = new int[C4Game.MAX_PLAYERS];
+
+        private ByteBuffer buffer;
+        private long       time;
+        private int        width;
+        private int        height;
+        private int        connect;
+        private int        players;
+        private int        result;
+        private int        moves;
+        private int        movesOffset;
+
+        // milliseconds since the epoch
+        long getTime()
+        {
+            return this.time;
+        }
+
+        Rules getRules()
+        {
+            return new Rules(this.width, this.height, this.connect);
+        }
+
+        int getPlayerCount()
+        {
+            return this.players;
+        }
+
+        // as it is typed at the prompt, only decoded when asked for
+        String getPlayer(int player)
+        {
+            Objects.checkIndex(player, this.players);
+            int    offset = this.nameOffsets[player];
+            byte[] name   = new byte[this.buffer.get(offset) & 0xFF];
+            this.buffer.get(offset + 1, name);
+            return new String(name, StandardCharsets.UTF_8);
+        }
+
+        // index of the winner in turn order, or -1 for a draw
+        int getWinner()
+        {
+            return this.result - 1;
+        }
+
+        int getMoveCount()
+        {
+            return this.moves;
+        }
+
+        // column of move i, numbered from 0
+        int getMove(int i)
+        {
+            Objects.checkIndex(i, this.moves);
+            int bit   = i * MOVE_BITS;
+            int at    = this.movesOffset + bit / Byte.SIZE;
+            int shift = 2 * Byte.SIZE - MOVE_BITS - bit % Byte.SIZE;
+            // the move may straddle two bytes, and the second one is only there if it does
+            int high  = this.buffer.get(at) & 0xFF;
+            int low   = shift < Byte.SIZE ? this.buffer.get(at + 1) & 0xFF : 0;
+            return ((high << Byte.SIZE | low) >>> shift) & (MAX_WIDTH - 1);
+        }
+
+        // the columns of the first count moves (fewer in shorter games), numbered from 1, as Position.of() takes them
+        String getOpening(int count)
+        {
+            StringBuilder opening = new StringBuilder(count);
+            for (int i = 0; i < Math.min(count, this.moves); i++)
+            {
+                opening.append(this.getMove(i) + 1);
+            }
+            return opening.toString();
+        }
+
+        // time, rules, players, result and moves
+        @Override
+        public String toString()
+        {
+            StringBuilder text = new StringBuilder(Instant.ofEpochMilli(this.time).toString());
+            text.append(' ').append(this.getRules());
+            for (int player = 0; player < this.players; player++)
+            {
+                text.append(" \"").append(this.getPlayer(player)).append('"');
+            }
+            text.append(this.result == 0 ? " draw" : " won by " + this.getWinner());
+            text.append(' ').append(this.moves == 0 ? "-" : this.getOpening(this.moves));
+            return text.toString();
+        }
+
+        // reads the game at buffer's position and moves past it, unless it is not all there or not a game at all
+        private boolean read(ByteBuffer buffer)
+        {
+            int start = buffer.position();
+            if (!this.parse(buffer))
+            {
+                buffer.position(start);
+                return false;
+            }
+            return true;
+        }
+
+        private boolean parse(ByteBuffer buffer)
+        {
+            if (buffer.remaining() < FIXED_BYTES)
+            {
+                return false;
+            }
+            this.buffer = buffer;
+            this.time = buffer.getLong();
+            this.width = buffer.get();
+            this.height = buffer.get();
+            this.connect = buffer.get();
+            this.players = buffer.get();
+            if (this.width < 1 || this.width > MAX_WIDTH || this.players < 2 || this.players > C4Game.MAX_PLAYERS)
+            {
+                return false;
+            }
+            for (int i = 0; i < this.players; i++)
+            {
+                if (!buffer.hasRemaining() || buffer.remaining() < 1 + (buffer.get(buffer.position()) & 0xFF))
+                {
+                    return false;
+                }
+                this.nameOffsets[i] = buffer.position();
+                buffer.position(buffer.position() + 1 + (buffer.get(buffer.position()) & 0xFF));
+            }
+            if (buffer.remaining() < 1 + Short.BYTES)
+            {
+                return false;
+            }
+            this.result = buffer.get();
+            this.moves = Short.toUnsignedInt(buffer.getShort());
+            this.movesOffset = buffer.position();
+            if (this.result < 0 || this.result > this.players || buffer.remaining() < packedBytes(this.moves))
+            {
+                return false;
+            }
+            buffer.position(this.movesOffset + packedBytes(this.moves));
+            return true;
+        }
+    }
+
+    // how a set of games went
+    static final class Tally
+    {
+        private final long[] wins = new long[C4Game.MAX_PLAYERS];
+
+        private long games;
+        private long draws;
+        private long moves;
+        private int  players;
+
+        private void add(Game game)
+        {
+            this.games++;
+            this.moves += game.getMoveCount();
+            this.players = Math.max(this.players, game.getPlayerCount());
+            if (game.getWinner() < 0)
+            {
+                this.draws++;
+            }
+            else
+            {
+                this.wins[game.getWinner()]++;
+            }
+        }
+
+        long getGames()
+        {
+            return this.games;
+        }
+
+        // the most players any of the games had
+        int getPlayerCount()
+        {
+            return this.players;
+        }
+
+        // share of the games won by whoever played at that index in turn order
+        double getWinRate(int player)
+        {
+            return this.games == 0 ? 0 : (double) this.wins[player] / this.games;
+        }
+
+        double getDrawRate()
+        {
+            return this.games == 0 ? 0 : (double) this.draws / this.games;
+        }
+
+        // in moves
+        double getAverageLength()
+        {
+            return this.games == 0 ? 0 : (double) this.moves / this.games;
+        }
+    }
+}
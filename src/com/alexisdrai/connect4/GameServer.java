@@ -0,0 +1,567 @@
+package com.alexisdrai.connect4;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.alexisdrai.connect4.C4Game.PlayerSpec;
+
+/*
+ * hosts any number of games at once, behind a line-based protocol on a loopback TCP port
+ *
+ * every connection gets a thread of its own, which mostly waits for the client's next line. bots' moves are searched
+ * on a fixed pool of search threads instead, and only so many searches may be running or waiting for a thread at once:
+ * past that, the server answers BUSY rather than queueing more, and the client tries again later with GO.
+ * bots search on a single thread each, all with the same transposition table, so that a game costs next to no memory,
+ * and Monte Carlo bots, which have trees of their own instead, only get MCTS_MEGABYTES for them.
+ * games nobody touched for a while are dropped.
+ * the table is dumped to a cache file every few minutes and when the server closes, and a server started where
+ * there is one warms its table up from it (see TranspositionTable.warmFrom()), so that bots do not have to learn
+ * everything over again after a restart.
+ * the server publishes EngineMetrics through JMX, with its sessions counted in.
+ *
+ * each request is one line, and gets one line back: "OK ...", "BUSY ..." or "ERR <reason>"
+ *   NEW [rules] <players>       starts a game, players separated by commas and named as typed at Main's prompt
+ *                               (e.g. "NEW alice,bot 9 200ms", or "NEW 9x7:5 alice,bob,bot" for a variant, see Rules),
+ *                               lets the bots play until it is a human's turn, then answers "OK <id> <state>"
+ *   JOIN <id>                   switches to that game (e.g. for a second human on another connection),
+ *                               then answers "OK <id> <state>"
+ *   PLAY <column>               plays a column (from 1) for the human whose turn it is, then lets the bots play
+ *   GO                          lets the bots play, after a BUSY answer
+ *   SHOW                        "OK <state>"
+ *   LEAVE                       ends the current game
+ *   QUIT                        "OK bye", then closes the connection
+ * where <state> is the columns played so far (or "-", see C4Game.getHistory()),
+ * then "TURN <player>", "WON <player>" or "DRAW", players being numbered from 1 in the order they were given
+ *
+ * usage: java -cp build com.alexisdrai.connect4.GameServer [port] [search threads] [idle seconds]
+ *            [cache file] [minutes between dumps, 0 for only when closing]
+ */
+public class GameServer implements AutoCloseable
+{
+    static final int  DEFAULT_PORT = 4004;
+    static final Path CACHE_PATH   = Paths.get(".").resolve("cache.bin");
+
+    private static final int  TABLE_MEGABYTES      = 256;
+    private static final int  MCTS_MEGABYTES       = 4;
+    private static final int  SEARCHES_PER_THREAD  = 4;
+    private static final long BUSY_WAIT_MILLIS     = 50;
+    private static final int  DEFAULT_IDLE_SECONDS = 600;
+    private static final int  DEFAULT_DUMP_MINUTES = 5;
+    private static final int  MAX_LINE_CHARS       = 256;
+    private static final int  BACKLOG              = 1024;
+
+    private final ServerSocket             serverSocket;
+    private final ExecutorService          connections;
+    private final ExecutorService          searches;
+    private final Semaphore                searchSlots;
+    // evicts idle sessions and dumps the table
+    private final ScheduledExecutorService scheduler;
+    private final TranspositionTable       table = new TranspositionTable(TABLE_MEGABYTES);
+    private final Path                     cache;
+
+    private final ConcurrentHashMap<Long, Session> sessions = new ConcurrentHashMap<>();
+    private final Set<Socket>                      clients  = ConcurrentHashMap.newKeySet();
+    private final AtomicLong                       nextId   = new AtomicLong(1);
+    private final AtomicBoolean                    closed   = new AtomicBoolean();
+    private final long                             idleNanos;
+
+    // port 0 picks any free port (see getPort())
+    GameServer(int port, int searchThreads, long idleMillis) throws IOException
+    {
+        this(port, searchThreads, idleMillis, null, 0);
+    }
+
+    // cache: where the table is warmed up from and dumped to (null for neither), every dumpMillis (0 for only on close)
+    GameServer(int port, int searchThreads, long idleMillis, Path cache, long dumpMillis) throws IOException
+    {
+        if (searchThreads < 1 || idleMillis < 1 || dumpMillis < 0)
+        {
+            throw new IllegalArgumentException(String.format("invalid server: %d search threads, idle after %dms, " +
+                                                             "dumped every %dms",
+                                                             searchThreads,
+                                                             idleMillis,
+                                                             dumpMillis));
+        }
+        // bound before any thread is started, so that a port already taken leaves nothing behind to keep the JVM up
+        this.serverSocket = new ServerSocket(port, BACKLOG, InetAddress.getLoopbackAddress());
+        this.connections = Executors.newCachedThreadPool();
+        this.searches = Executors.newFixedThreadPool(searchThreads);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor();
+        this.searchSlots = new Semaphore(searchThreads * SEARCHES_PER_THREAD);
+        this.idleNanos = TimeUnit.MILLISECONDS.toNanos(idleMillis);
+        this.cache = cache;
+        if (cache != null && Files.exists(cache))
+        {
+            try
+            {
+                this.table.warmFrom(cache);
+            } catch (IOException e)
+            {
+                System.err.println("starting with an empty table: " + e.getMessage());
+            }
+        }
+        long evictEvery = Math.max(1, idleMillis / 4);
+        this.scheduler.scheduleWithFixedDelay(this::evictIdle, evictEvery, evictEvery, TimeUnit.MILLISECONDS);
+        if (cache != null && dumpMillis > 0)
+        {
+            this.scheduler.scheduleWithFixedDelay(this::dumpTable, dumpMillis, dumpMillis, TimeUnit.MILLISECONDS);
+        }
+        EngineMetrics.register();
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        int  port          = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        int  searchThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        int  idleSeconds   = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_IDLE_SECONDS;
+        Path cache         = args.length > 3 ? Paths.get(args[3]) : CACHE_PATH;
+        int  dumpMinutes   = args.length > 4 ? Integer.parseInt(args[4]) : DEFAULT_DUMP_MINUTES;
+        GameServer server = new GameServer(port,
+                                           searchThreads,
+                                           idleSeconds * 1000L,
+                                           cache,
+                                           TimeUnit.MINUTES.toMillis(dumpMinutes));
+        // a server stopped by a signal (e.g. during a deploy) still dumps its table: only the first close() counts
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try
+            {
+                server.close();
+            } catch (IOException e)
+            {
+                System.err.println("could not close the server: " + e);
+            }
+        }));
+        try
+        {
+            System.out.println("listening on " + server.serverSocket.getLocalSocketAddress());
+            server.serve();
+        } finally
+        {
+            server.close();
+        }
+    }
+
+    int getPort()
+    {
+        return this.serverSocket.getLocalPort();
+    }
+
+    int getSessionCount()
+    {
+        return this.sessions.size();
+    }
+
+    // accepts connections on another thread, for whoever embeds the server
+    void start()
+    {
+        this.connections.execute(this::serve);
+    }
+
+    // accepts connections until the server is closed
+    void serve()
+    {
+        while (!this.serverSocket.isClosed())
+        {
+            try
+            {
+                Socket client = this.serverSocket.accept();
+                this.clients.add(client);
+                this.connections.execute(() -> this.talkTo(client));
+            } catch (IOException e)
+            {
+                if (!this.serverSocket.isClosed())
+                {
+                    System.err.println("could not accept a connection: " + e);
+                }
+            }
+        }
+    }
+
+    // only the first call does anything
+    @Override
+    public void close() throws IOException
+    {
+        if (this.closed.getAndSet(true))
+        {
+            return;
+        }
+        this.serverSocket.close();
+        for (Socket client : this.clients)
+        {
+            client.close(); // unblocks its thread's read
+        }
+        this.connections.shutdownNow();
+        this.searches.shutdownNow();
+        this.scheduler.shutdownNow();
+        this.sessions.values().forEach(this::drop);
+        if (this.cache != null)
+        {
+            try
+            {
+                // searches in progress get a moment to finish, for the dump to hold what they found
+                this.searches.awaitTermination(1, TimeUnit.SECONDS);
+                this.scheduler.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            this.table.dump(this.cache);
+        }
+    }
+
+    // on the scheduler: a failed dump leaves the previous one in place, and the next one may well succeed
+    private void dumpTable()
+    {
+        try
+        {
+            this.table.dump(this.cache);
+        } catch (IOException e)
+        {
+            System.err.println("could not dump the table to " + this.cache + ": " + e);
+        }
+    }
+
+    private void talkTo(Socket client)
+    {
+        try (client;
+             BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(),
+                                                                          StandardCharsets.UTF_8));
+             BufferedWriter out = new BufferedWriter(new OutputStreamWriter(client.getOutputStream(),
+                                                                            StandardCharsets.UTF_8)))
+        {
+            Connection    connection = new Connection();
+            StringBuilder buffer     = new StringBuilder(MAX_LINE_CHARS + 2);
+            String        line;
+            while (!connection.quit && (line = readLine(in, buffer)) != null)
+            {
+                out.write(connection.answer(line));
+                out.write('\n');
+                out.flush();
+                if (line.length() > MAX_LINE_CHARS)
+                {
+                    break; // the rest of that line was never read, so there is no telling where the next one starts
+                }
+            }
+        } catch (SocketException ignored)
+        {
+            // the client hung up, or the server is closing
+        } catch (IOException e)
+        {
+            System.err.println("connection lost: " + e);
+        } finally
+        {
+            this.clients.remove(client);
+        }
+    }
+
+    /*
+     * like BufferedReader.readLine(), except that it stops reading a line once it is longer than MAX_LINE_CHARS,
+     * so that a client never sending a newline cannot make it grow without bounds. null at the end of the stream
+     */
+    private static String readLine(BufferedReader in, StringBuilder line) throws IOException
+    {
+        line.setLength(0);
+        int c;
+        while ((c = in.read()) >= 0 && c != '\n')
+        {
+            line.append((char) c);
+            if (line.length() > MAX_LINE_CHARS + 1) // one more for a '\r' before the '\n'
+            {
+                return line.toString();
+            }
+        }
+        if (c < 0 && line.length() == 0)
+        {
+            return null;
+        }
+        if (line.length() > 0 && line.charAt(line.length() - 1) == '\r')
+        {
+            line.setLength(line.length() - 1);
+        }
+        return line.toString();
+    }
+
+    private void evictIdle()
+    {
+        long now = System.nanoTime();
+        for (Session session : this.sessions.values())
+        {
+            if (now - session.lastUsed > this.idleNanos)
+            {
+                this.drop(session);
+            }
+        }
+    }
+
+    private void open(Session session)
+    {
+        this.sessions.put(session.id, session);
+        EngineMetrics.sessionOpened();
+    }
+
+    // safe to call more than once, e.g. by a LEAVE racing with the evictor: the session is only counted out once
+    private void drop(Session session)
+    {
+        if (this.sessions.remove(session.id, session))
+        {
+            session.game.shutdown();
+            EngineMetrics.sessionClosed();
+        }
+    }
+
+    // plays the bots' moves until a human's turn or the end of the game; false if the search pool is saturated
+    private boolean letBotsPlay(C4Game game) throws InterruptedException
+    {
+        while (!game.isOver() && game.getCurrentPlayer().isBot())
+        {
+            if (!this.searchSlots.tryAcquire(BUSY_WAIT_MILLIS, TimeUnit.MILLISECONDS))
+            {
+                return false;
+            }
+            try
+            {
+                C4Game.C4Player bot    = game.getCurrentPlayer();
+                Future<Integer> choice = this.searches.submit(bot::chooseMove);
+                game.play(choice.get());
+            } catch (ExecutionException e)
+            {
+                throw new IllegalStateException("a bot's search failed", e.getCause());
+            } finally
+            {
+                this.searchSlots.release();
+            }
+        }
+        return true;
+    }
+
+    private static String state(C4Game game)
+    {
+        String moves = game.getHistory();
+        return (moves.isEmpty() ? "-" : moves) + " " + status(game);
+    }
+
+    private static String status(C4Game game)
+    {
+        if (game.getWinner() != null)
+        {
+            return "WON " + number(game, game.getWinner());
+        }
+        if (game.isOver())
+        {
+            return "DRAW";
+        }
+        return "TURN " + number(game, game.getCurrentPlayer());
+    }
+
+    private static int number(C4Game game, C4Game.C4Player player)
+    {
+        return game.indexOf(player) + 1;
+    }
+
+    private static final class Session
+    {
+        private final long   id;
+        private final C4Game game;
+
+        private volatile long lastUsed = System.nanoTime();
+
+        Session(long id, C4Game game)
+        {
+            this.id = id;
+            this.game = game;
+        }
+    }
+
+    // what one client is up to
+    private final class Connection
+    {
+        private Session session;
+        private boolean quit;
+
+        String answer(String line)
+        {
+            if (line.length() > MAX_LINE_CHARS)
+            {
+                return "ERR line too long";
+            }
+            String trimmed  = line.trim();
+            int    space    = trimmed.indexOf(' ');
+            String command  = (space < 0 ? trimmed : trimmed.substring(0, space)).toUpperCase(Locale.ROOT);
+            String argument = space < 0 ? "" : trimmed.substring(space + 1).trim();
+            try
+            {
+                return switch (command)
+                {
+                    case "NEW" -> this.newGame(argument);
+                    case "JOIN" -> this.join(argument);
+                    case "PLAY" -> this.play(argument);
+                    case "GO" -> this.go();
+                    case "SHOW" -> "OK " + state(this.current().game);
+                    case "LEAVE" -> this.leave();
+                    case "QUIT" -> {
+                        this.quit = true;
+                        yield "OK bye";
+                    }
+                    default -> "ERR unknown command " + command;
+                };
+            } catch (IllegalArgumentException | IllegalStateException e)
+            {
+                return "ERR " + e.getMessage();
+            } catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                this.quit = true;
+                return "ERR server closing";
+            }
+        }
+
+        private String newGame(String argument) throws InterruptedException
+        {
+            Rules rules = Rules.CLASSIC;
+            if (argument.matches("[0-9]+x[0-9]+:[0-9]+ .*"))
+            {
+                int space = argument.indexOf(' ');
+                rules = Rules.parse(argument.substring(0, space));
+                argument = argument.substring(space + 1);
+            }
+            String[] names = argument.split(",", -1);
+            PlayerSpec[] specs = new PlayerSpec[names.length];
+            for (int i = 0; i < names.length; i++)
+            {
+                specs[i] = PlayerSpec.parse(names[i].trim());
+                if (specs[i].isBot())
+                {
+                    // no pondering either: the search threads are all the server thinks with
+                    specs[i] = specs[i].withThreads(1).withPondering(false).withSharedTable(GameServer.this.table);
+                    if (specs[i].isMonteCarlo())
+                    {
+                        specs[i] = specs[i].withTableMegabytes(MCTS_MEGABYTES);
+                    }
+                }
+            }
+            Session session = new Session(GameServer.this.nextId.getAndIncrement(), new C4Game(rules, specs));
+            GameServer.this.open(session);
+            this.session = session;
+            return this.advance(session, session.id + " ");
+        }
+
+        private String join(String argument)
+        {
+            long id;
+            try
+            {
+                id = Long.parseLong(argument);
+            } catch (NumberFormatException e)
+            {
+                throw new IllegalArgumentException("not a game id: " + argument);
+            }
+            Session session = GameServer.this.sessions.get(id);
+            if (session == null)
+            {
+                throw new IllegalArgumentException("no game " + id + " (over, or idle for too long)");
+            }
+            session.lastUsed = System.nanoTime();
+            this.session = session;
+            synchronized (session)
+            {
+                return "OK " + session.id + " " + state(session.game);
+            }
+        }
+
+        private String play(String argument) throws InterruptedException
+        {
+            Session session = this.current();
+            int     col;
+            try
+            {
+                col = Integer.parseInt(argument) - 1;
+            } catch (NumberFormatException e)
+            {
+                throw new IllegalArgumentException("not a column: " + argument);
+            }
+            synchronized (session)
+            {
+                C4Game game = session.game;
+                if (game.isOver())
+                {
+                    throw new IllegalStateException("the game is over");
+                }
+                if (game.getCurrentPlayer().isBot())
+                {
+                    throw new IllegalStateException("it is a bot's turn: GO first");
+                }
+                if (!game.canPlay(col))
+                {
+                    throw new IllegalArgumentException("cannot play column " + argument);
+                }
+                game.play(col);
+                return this.advance(session, "");
+            }
+        }
+
+        private String go() throws InterruptedException
+        {
+            Session session = this.current();
+            synchronized (session)
+            {
+                return this.advance(session, "");
+            }
+        }
+
+        private String advance(Session session, String prefix) throws InterruptedException
+        {
+            synchronized (session)
+            {
+                boolean done = letBotsPlay(session.game);
+                session.lastUsed = System.nanoTime();
+                return (done ? "OK " : "BUSY ") + prefix + state(session.game);
+            }
+        }
+
+        private String leave()
+        {
+            Session session = this.current();
+            GameServer.this.drop(session);
+            this.session = null;
+            return "OK";
+        }
+
+        private Session current()
+        {
+            if (this.session == null)
+            {
+                throw new IllegalStateException("no game: NEW or JOIN first");
+            }
+            if (GameServer.this.sessions.get(this.session.id) != this.session)
+            {
+                this.session = null;
+                throw new IllegalStateException("the game was dropped after being idle for too long");
+            }
+            this.session.lastUsed = System.nanoTime();
+            return this.session;
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package com.alexisdrai.connect4;
+
+import java.util.Objects;
+import java.util.Random;
+
+/*
+ * board of any size, for any number of players: one byte per cell, column after column from the bottom up
+ *
+ * a move only ever looks at the cells around it, at most connect - 1 of them in each of the 8 directions,
+ * so that checking a win costs the same on a 100x100 board as on a 7x6 one
+ *
+ * positions are identified by Zobrist hashing: a random number per cell and player, xor-ed together for every token
+ * on the board, and again for the mirror image, both updated move by move. the numbers only depend on the rules
+ * and the number of players, so that keys stay the same from one run to the next
+ */
+final class GridBoard implements Board
+{
+    // '|', '-', '/' and '\' respectively, as (column, row) steps
+    private static final int[][] DIRECTIONS = {{0, 1}, {1, 0}, {1, 1}, {1, -1}};
+
+    private static final long ZOBRIST_SEED = 0x43345a4fL; // "C4ZO"
+
+    private final int    width;
+    private final int    height;
+    private final int    connect;
+    private final int    players;
+    // owner of each cell plus 1, 0 when it is empty
+    private final byte[] cells;
+    private final int[]  heights;
+    // zobrist[cell * players + player], shared by copies
+    private final long[] zobrist;
+
+    private int  moves;
+    private long hash;
+    private long mirrorHash;
+
+    GridBoard(Rules rules, int players)
+    {
+        Objects.requireNonNull(rules);
+        if (players < 1 || players > Byte.MAX_VALUE)
+        {
+            throw new IllegalArgumentException("invalid number of players: " + players);
+        }
+        this.width = rules.getWidth();
+        this.height = rules.getHeight();
+        this.connect = rules.getConnect();
+        this.players = players;
+        this.cells = new byte[rules.getCells()];
+        this.heights = new int[this.width];
+        this.zobrist = new long[this.cells.length * players];
+        Random random = new Random(ZOBRIST_SEED ^ 31L * rules.hashCode() + players);
+        for (int i = 0; i < this.zobrist.length; i++)
+        {
+            this.zobrist[i] = random.nextLong();
+        }
+        this.moves = 0;
+        this.hash = 0L;
+        this.mirrorHash = 0L;
+    }
+
+    private GridBoard(GridBoard other)
+    {
+        this.width = other.width;
+        this.height = other.height;
+        this.connect = other.connect;
+        this.players = other.players;
+        this.cells = other.cells.clone();
+        this.heights = other.heights.clone();
+        this.zobrist = other.zobrist;
+        this.moves = other.moves;
+        this.hash = other.hash;
+        this.mirrorHash = other.mirrorHash;
+    }
+
+    @Override
+    public int getSideToMove()
+    {
+        return this.moves % this.players;
+    }
+
+    @Override
+    public int getMoves()
+    {
+        return this.moves;
+    }
+
+    @Override
+    public boolean isFull()
+    {
+        return this.moves == this.cells.length;
+    }
+
+    @Override
+    public boolean canPlay(int col)
+    {
+        return this.heights[col] < this.height;
+    }
+
+    @Override
+    public int height(int col)
+    {
+        return this.heights[col];
+    }
+
+    @Override
+    public int owner(int col, int row)
+    {
+        return this.cells[col * this.height + row] - 1;
+    }
+
+    @Override
+    public void play(int col)
+    {
+        this.hash(col, this.heights[col], this.getSideToMove());
+        this.cells[col * this.height + this.heights[col]] = (byte) (this.getSideToMove() + 1);
+        this.heights[col]++;
+        this.moves++;
+    }
+
+    @Override
+    public void undo(int col)
+    {
+        this.heights[col]--;
+        this.moves--;
+        this.cells[col * this.height + this.heights[col]] = 0;
+        this.hash(col, this.heights[col], this.getSideToMove());
+    }
+
+    // 64-bit hashes may collide, if very rarely: the key is unique in practice rather than in theory
+    @Override
+    public long canonicalKey()
+    {
+        return Math.min(this.hash, this.mirrorHash);
+    }
+
+    @Override
+    public boolean isMirrored()
+    {
+        return this.mirrorHash < this.hash;
+    }
+
+    // adds or removes (xor being its own inverse) side's token at (col, row)
+    private void hash(int col, int row, int side)
+    {
+        this.hash ^= this.zobrist[(col * this.height + row) * this.players + side];
+        this.mirrorHash ^= this.zobrist[((this.width - 1 - col) * this.height + row) * this.players + side];
+    }
+
+    @Override
+    public boolean isWinningMove(int col)
+    {
+        return this.alignedIfPlayed(col, this.getSideToMove()) >= this.connect;
+    }
+
+    @Override
+    public GridBoard copy()
+    {
+        return new GridBoard(this);
+    }
+
+    // lines longer than connect tokens are counted as 2 * connect - 1 at most, since that is enough to win
+    @Override
+    public int alignedIfPlayed(int col, int side)
+    {
+        int row = this.heights[col];
+        int max = 0;
+        for (int[] dir : DIRECTIONS)
+        {
+            int length = 1
+                         + this.run(col, row, dir[0], dir[1], side)
+                         + this.run(col, row, -dir[0], -dir[1], side);
+            max = Math.max(max, length);
+        }
+        return max;
+    }
+
+    // number of side's tokens in a row from (col, row) excluded, going (colStep, rowStep) at a time
+    private int run(int col, int row, int colStep, int rowStep, int side)
+    {
+        byte token  = (byte) (side + 1);
+        int  length = 0;
+        int  c      = col + colStep;
+        int  r      = row + rowStep;
+        while (length < this.connect - 1
+               && c >= 0 && c < this.width && r >= 0 && r < this.height
+               && this.cells[c * this.height + r] == token)
+        {
+            length++;
+            c += colStep;
+            r += rowStep;
+        }
+        return length;
+    }
+}
@@ -0,0 +1,98 @@
+package com.alexisdrai.connect4;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * lock-free histogram of durations (in nanoseconds), that any number of threads can record into without allocating
+ *
+ * values are bucketed by their highest set bit, then by the SUB_BITS bits right below it,
+ * so that every bucket is at most ~3% wide whatever the magnitude of the values in it
+ */
+final class LatencyHistogram
+{
+    private static final int SUB_BITS = 5;
+    private static final int SUB      = 1 << SUB_BITS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(Long.SIZE * SUB);
+    private final AtomicLong      count  = new AtomicLong();
+    private final AtomicLong      total  = new AtomicLong();
+    private final AtomicLong      max    = new AtomicLong();
+
+    void record(long nanos)
+    {
+        long value = Math.max(0, nanos);
+        this.counts.incrementAndGet(index(value));
+        this.count.incrementAndGet();
+        this.total.addAndGet(value);
+        this.max.accumulateAndGet(value, Math::max);
+    }
+
+    long getCount()
+    {
+        return this.count.get();
+    }
+
+    long getMax()
+    {
+        return this.max.get();
+    }
+
+    double getMean()
+    {
+        long n = this.count.get();
+        return n == 0 ? 0 : (double) this.total.get() / n;
+    }
+
+    // smallest value (give or take a bucket) that at least percent % of the recorded values do not exceed
+    long getPercentile(double percent)
+    {
+        long n = this.count.get();
+        if (n == 0)
+        {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(percent / 100 * n));
+        long seen   = 0;
+        for (int i = 0; i < this.counts.length(); i++)
+        {
+            seen += this.counts.get(i);
+            if (seen >= target)
+            {
+                return Math.min(upperBound(i), this.max.get());
+            }
+        }
+        return this.max.get();
+    }
+
+    void reset()
+    {
+        for (int i = 0; i < this.counts.length(); i++)
+        {
+            this.counts.set(i, 0);
+        }
+        this.count.set(0);
+        this.total.set(0);
+        this.max.set(0);
+    }
+
+    private static int index(long value)
+    {
+        if (value < SUB)
+        {
+            return (int) value; // small values get a bucket of their own
+        }
+        int shift = (Long.SIZE - 1 - Long.numberOfLeadingZeros(value)) - SUB_BITS;
+        return ((shift + 1) << SUB_BITS) + (int) ((value >>> shift) & (SUB - 1));
+    }
+
+    private static long upperBound(int index)
+    {
+        if (index < SUB)
+        {
+            return index;
+        }
+        int shift = (index >> SUB_BITS) - 1;
+        return ((long) (SUB + (index & (SUB - 1))) << shift) + (1L << shift) - 1;
+    }
+}
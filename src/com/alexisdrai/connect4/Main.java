@@ -2,25 +2,58 @@ package com.alexisdrai.connect4;
 
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Scanner;
 
 import static com.alexisdrai.connect4.C4Game.*;
 import static com.alexisdrai.util.Misc.*;
 
+// console client of C4Game: everything the players see and type goes through here
 public class Main
 {
-    public static final Path PATH = Paths.get(".").resolve("save.txt");
+    public static final Path PATH          = Paths.get(".").resolve("save.txt");
+    // the game in progress is journaled there after every move, so that it can be resumed after a crash
+    public static final Path AUTOSAVE_PATH = Paths.get(".").resolve("autosave.bin");
+    // and every finished game is added there (see GameArchive)
+    public static final Path ARCHIVE_PATH  = GameArchive.DEFAULT_PATH;
 
+    static final Scanner scanner   = new Scanner(System.in);
+    static final int     SAVE_CODE = -2;
+    static final int     LOAD_CODE = -3;
+    static final int     QUIT_CODE = -4;
+    static final int     UNDO_CODE = -5;
+
+    private static final int AUTOSAVE_SYNC_EVERY    = 1;
+    private static final int AUTOSAVE_COMPACT_EVERY = 8;
+    private static final int SPECTATE_FPS           = 30;
+    private static final int HINT_MILLIS            = 500;
+
+    private static final BoardRenderer renderer = BoardRenderer.redrawing(System.out);
+
+    private static C4Game        autosaved = null;
+    // games between bots only are watched rather than played: redrawing the board after every move would slow them
+    private static BoardRenderer spectator = BoardRenderer.updating(System.out, SPECTATE_FPS);
+
+    // args: [frames per second when only bots play, 0 to draw every move]
     public static void main(String[] args)
     {
+        if (args.length > 0)
+        {
+            spectator = BoardRenderer.updating(System.out, Integer.parseInt(args[0]));
+        }
+        if (EngineMetrics.isCounting())
+        {
+            EngineMetrics.register(); // -Dconnect4.metrics=true: for jconsole to watch the bots
+        }
         System.out.println("Welcome to my Connect4 prototype!");
 
         char   input = 0;
         C4Game game  = null;
 
-        while (!(input == 'n' || input == 'l' || input == 'q'))
+        while (!(input == 'n' || input == 'l' || input == 'r' || input == 'q'))
         {
             System.out.println("n...: new game\n" +
                                "l...: load game\n" +
+                               "r...: resume the last game (autosaved after every move)\n" +
                                "q...: quit");
             if (scanner.hasNext())
             {
@@ -31,18 +64,31 @@ public class Main
 
         switch (input)
         {
-            case ('n') -> game = new C4Game();
+            case ('n') -> game = promptGame();
             case ('l') -> {
                 try
                 {
-                    game = new C4Game(PATH);
+                    game = load();
                 } catch (Exception ignored)
                 {
                     System.out.println(ANSI_PURPLE +
                                        "could not load from " + PATH + ANSI_CYAN +
                                        "\ncreating new game instead" +
                                        ANSI_RESET);
-                    game = new C4Game();
+                    game = promptGame();
+                }
+            }
+            case ('r') -> {
+                try
+                {
+                    game = load(AUTOSAVE_PATH);
+                } catch (Exception ignored)
+                {
+                    System.out.println(ANSI_PURPLE +
+                                       "could not resume from " + AUTOSAVE_PATH + ANSI_CYAN +
+                                       "\ncreating new game instead" +
+                                       ANSI_RESET);
+                    game = promptGame();
                 }
             }
             case ('q') -> {
@@ -52,15 +98,33 @@ public class Main
         }
 
         System.out.println("During the game:\n" +
+                           "u...: undo your last move\n" +
+                           "h...: hint (how each column looks for you)\n" +
                            "s...: save\n" +
                            "l...: load\n" +
                            "q...: quit");
 
         while (!game.isOver())
         {
+            autosave(game);
             C4Game.C4Player player = game.getCurrentPlayer();
-            game.displayBoard();
-            int chosenMove = player.chooseMove();
+            displayBoard(game);
+            int chosenMove;
+            if (player.isBot())
+            {
+                if (!isSpectated(game))
+                {
+                    System.out.println(player.getColorfulName() + "'s turn");
+                }
+                chosenMove = player.chooseMove();
+            }
+            else
+            {
+                // bots that ponder think about the position meanwhile
+                game.ponder();
+                chosenMove = promptMove(game, player);
+                game.stopPondering();
+            }
             if (chosenMove < 0)
             {
                 switch (chosenMove)
@@ -68,7 +132,9 @@ public class Main
                     case (SAVE_CODE) -> {
                         try
                         {
+                            System.out.println("saving game...");
                             game.save(PATH);
+                            System.out.println("game saved");
                         } catch (Exception ignored)
                         {
                             System.out.println(ANSI_PURPLE +
@@ -81,14 +147,29 @@ public class Main
                     case (LOAD_CODE) -> {
                         try
                         {
-                            game = new C4Game(PATH);
+                            game = load();
                         } catch (Exception e)
                         {
                             System.out.println(ANSI_RED + e);
                             System.out.println(ANSI_PURPLE + "could not load from " + PATH + ANSI_RESET);
                         }
                     }
+                    case (UNDO_CODE) -> {
+                        // taking back the bots' replies too, down to the last move of a human
+                        boolean undone = false;
+                        while (game.getTokensLeft() < game.getRules().getCells()
+                               && !(undone && !game.getCurrentPlayer().isBot()))
+                        {
+                            game.undo();
+                            undone = true;
+                        }
+                        if (!undone)
+                        {
+                            System.out.println(ANSI_PURPLE + "no move to undo" + ANSI_RESET);
+                        }
+                    }
                     case (QUIT_CODE) -> {
+                        autosave(null);
                         System.out.println("Thanks for playing, goodbye!");
                         return;
                     }
@@ -97,17 +178,25 @@ public class Main
             }
             else // player chose a move above 0
             {
-                game.registerMove(chosenMove);
+                // the turn goes to the next player by itself: it is always read off the board
+                game.play(chosenMove);
                 input = 0;
 
                 if (game.isOver())
                 {
+                    if (isSpectated(game))
+                    {
+                        // the final position, even if it comes too soon after the last frame
+                        spectator.render(game, true);
+                        spectator.invalidate();
+                    }
+                    archive(game);
                     System.out.println("~~~~~~~~~~~~~~ Game over ~~~~~~~~~~~~~~");
                     if (game.isWon())
                     {
                         System.out.println("Winner: " + player.getColorfulName());
                     }
-                    game.displayBoard();
+                    renderer.render(game);
                     System.out.println("Play again?\n" +
                                        "y...: yes\n" +
                                        "l...: reload\n" +
@@ -119,32 +208,258 @@ public class Main
                     }
                     switch (input)
                     {
-                        case ('y') -> {
-                            game = new C4Game();
-                            input = 0;
-                        }
-
+                        case ('y') -> game = promptGame();
                         case ('l') -> {
                             try
                             {
-                                game = new C4Game(PATH);
+                                game = load();
                             } catch (Exception ignored)
                             {
                                 System.out.println(ANSI_PURPLE +
                                                    "could not load from " + PATH + ANSI_CYAN +
                                                    "\ncreating new game instead" +
                                                    ANSI_RESET);
-                                game = new C4Game();
+                                game = promptGame();
                             }
                         }
                     }
                 }
-                if (!game.isOver() && input != 'l')
+            }
+        }
+        autosave(null);
+        System.out.println("Thanks for playing!");
+    }
+
+    // starts journaling game to AUTOSAVE_PATH, unless it already is, and stops journaling the previous one,
+    // which is over with: its bots' threads are stopped too
+    private static void autosave(C4Game game)
+    {
+        if (game == autosaved)
+        {
+            return;
+        }
+        if (autosaved != null)
+        {
+            autosaved.shutdown();
+        }
+        try
+        {
+            if (autosaved != null)
+            {
+                autosaved.closeJournal();
+            }
+            autosaved = game;
+            if (game != null)
+            {
+                game.journalTo(AUTOSAVE_PATH, AUTOSAVE_SYNC_EVERY, AUTOSAVE_COMPACT_EVERY);
+            }
+        } catch (Exception e)
+        {
+            System.out.println(ANSI_PURPLE + "could not autosave to " + AUTOSAVE_PATH + ANSI_RESET);
+        }
+    }
+
+    // adds a finished game to the archive at ARCHIVE_PATH, if it fits there
+    private static void archive(C4Game game)
+    {
+        if (!GameArchive.fits(game.getRules()))
+        {
+            return;
+        }
+        try (GameArchive archive = GameArchive.open(ARCHIVE_PATH))
+        {
+            archive.append(game);
+        } catch (Exception e)
+        {
+            System.out.println(ANSI_PURPLE + "could not archive the game to " + ARCHIVE_PATH + ANSI_RESET);
+        }
+    }
+
+    private static C4Game load() throws Exception
+    {
+        return load(PATH);
+    }
+
+    private static C4Game load(Path path) throws Exception
+    {
+        System.out.println("loading game...");
+        C4Game game = C4Game.load(path);
+        System.out.println("game loaded");
+        return game;
+    }
+
+    // the variant to play, then who plays it
+    private static C4Game promptGame()
+    {
+        while (true)
+        {
+            System.out.println("Which game? (press enter for the classic one, or type e.g. \"9x7:5 3\" " +
+                               "for 3 players connecting 5 tokens on 9 columns and 7 rows)");
+            String line = scanner.hasNextLine() ? scanner.nextLine().trim() : "";
+            try
+            {
+                if (line.isEmpty())
                 {
-                    game.switchPlayer();
+                    return new C4Game(Rules.CLASSIC, promptNames(2));
                 }
+                String[] parts   = line.split("\\s+");
+                Rules    rules   = Rules.parse(parts[0]);
+                int      players = parts.length > 1 ? Integer.parseInt(parts[1]) : 2;
+                if (players < 2 || players > MAX_PLAYERS)
+                {
+                    throw new IllegalArgumentException("a game needs 2 to " + MAX_PLAYERS + " players");
+                }
+                return new C4Game(rules, promptNames(players));
+            } catch (IllegalArgumentException e)
+            {
+                System.out.println(ANSI_PURPLE + e.getMessage() + ANSI_RESET);
             }
         }
-        System.out.println("Thanks for playing!");
+    }
+
+    private static String[] promptNames(int count)
+    {
+        String[] names = new String[count];
+        for (int allCount = 0; allCount < count; allCount++)
+        {
+            Color  color = Color.values()[allCount];
+            String name  = null;
+
+            while (name == null || name.equals(""))
+            {
+                String colorStr = color.paint(color.toString().toLowerCase());
+                System.out.println("Who shall play " + colorStr + "?");
+                System.out.println(
+                        "(please enter your name, or \"bot\" (in lowercase) to assign them " + colorStr +
+                        ", optionally followed by how many moves ahead it may look, how long it may think " +
+                        "and/or on how many threads, e.g. \"bot 9\", \"bot 500ms\" or \"bot 9 500ms 4t\", " +
+                        "then \"ntuple\" for it to judge positions with the trained network (see NTupleTrainer) " +
+                        "and/or \"ponder\" for it to think on your time too, " +
+                        "or \"mcts\" for a bot that plays random games instead, e.g. \"mcts 20000p\" or " +
+                        "\"mcts 500ms 4t\")");
+                if (scanner.hasNextLine())
+                {
+                    name = scanner.nextLine();
+                }
+            }
+            names[allCount] = name;
+        }
+        return names;
+    }
+
+    private static int promptMove(C4Game game, C4Game.C4Player player)
+    {
+        int column = -1;
+        int input;
+        while (!game.canPlay(column - 1))
+        {
+            System.out.printf("%s : please choose a non-full column between 1 and %d%n",
+                              player.getColorfulName(),
+                              game.getRules().getWidth());
+            try
+            {
+                column = scanner.nextInt();
+            } catch (Exception ignored)
+            {
+                if (scanner.hasNext())
+                {
+                    input = scanner.next().charAt(0);
+                    switch (input)
+                    {
+                        case ('s') -> {
+                            return SAVE_CODE;
+                        }
+                        case ('l') -> {
+                            return LOAD_CODE;
+                        }
+                        case ('u') -> {
+                            return UNDO_CODE;
+                        }
+                        case ('h') -> printHint(game);
+                        case ('q') -> {
+                            return QUIT_CODE;
+                        }
+                    }
+                    scanner.nextLine();// purging the scanner for the next attempt
+                }
+            }
+        }
+        return column - 1;// the index of said column
+    }
+
+    // the score of every column for the player to move, the best ones highlighted
+    private static void printHint(C4Game game)
+    {
+        int[] scores;
+        try
+        {
+            scores = game.hint(HINT_MILLIS);
+        } catch (IllegalStateException e)
+        {
+            System.out.println(ANSI_PURPLE + e.getMessage() + ANSI_RESET);
+            return;
+        }
+        if (scores == null)
+        {
+            return;
+        }
+        int best = Integer.MIN_VALUE;
+        for (int score : scores)
+        {
+            best = Math.max(best, score);
+        }
+        int           moves = game.getRules().getCells() - game.getTokensLeft();
+        StringBuilder hint  = new StringBuilder("hint:");
+        for (int col = 0; col < scores.length; col++)
+        {
+            String text = describe(scores[col], moves);
+            hint.append("  ").append(col + 1).append(": ");
+            hint.append(scores[col] == best ? ANSI_GREEN + text + ANSI_RESET : text);
+        }
+        System.out.println(hint);
+    }
+
+    // a score as Search gives it, for the side to move after that many moves
+    private static String describe(int score, int moves)
+    {
+        if (score == Integer.MIN_VALUE)
+        {
+            return "full";
+        }
+        // a win or loss score tells how many moves were played before the winning one
+        if (score > Search.WIN_SCORE)
+        {
+            return "win in " + ((Search.WIN_SCORE + Position.CELLS - score - moves) / 2 + 1);
+        }
+        if (score < -Search.WIN_SCORE)
+        {
+            return "loss in " + ((Search.WIN_SCORE + Position.CELLS + score - moves + 1) / 2);
+        }
+        return String.format("%+d", score);
+    }
+
+    // the board once per move, or only the tokens played since the last frame if nobody but bots plays
+    private static void displayBoard(C4Game game)
+    {
+        if (isSpectated(game))
+        {
+            spectator.render(game);
+        }
+        else
+        {
+            renderer.render(game);
+        }
+    }
+
+    private static boolean isSpectated(C4Game game)
+    {
+        for (C4Game.C4Player player : game.getPlayers())
+        {
+            if (!player.isBot())
+            {
+                return false;
+            }
+        }
+        return true;
     }
 }
@@ -0,0 +1,504 @@
+package com.alexisdrai.connect4;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/*
+ * Monte Carlo tree search (UCT): the tree grows one node at a time towards the moves that have won the most playouts,
+ * each playout finishing the game at random, except that whoever can win right away does.
+ * the column returned is the one the root's children were visited through the most
+ *
+ * unlike Search, it only needs the rules of the game (any Board, any number of players), and no evaluation:
+ * playing strength follows from the number of playouts, which in turn grows linearly with time and threads.
+ *
+ * "root parallelism": each thread grows a tree of its own from its own copy of the board,
+ * and their visit counts are added up at the root. trees live in node pools that are never freed, and only grow
+ * (by doubling, up to the size they were given) once a search needs more nodes than they hold:
+ * when the game goes on along a branch a tree has already explored, that branch is moved to the front of its pool
+ * and becomes the next root, and anything else is dropped
+ */
+final class MonteCarloSearch
+{
+    static final long UNLIMITED = 0L;
+
+    // per node: first child and visits (int), reward (float), move, children and win flag (byte), twice (see reuse())
+    static final int NODE_BYTES = 2 * (4 + 4 + 4 + 1 + 1 + 1);
+
+    // exploration constant of UCB1: sqrt(2) in theory, a bit less in practice for connection games
+    private static final float EXPLORATION = 1.0f;
+    // how many playouts go by between two looks at the clock
+    private static final int   CLOCK_CHECK = 7;
+    // nodes a pool starts with, so that short searches never pay for the whole of it
+    private static final int   FIRST_NODES = 1 << 12;
+
+    private final Rules        rules;
+    private final int          players;
+    private final long         playoutBudget;
+    private final long         budgetNanos;
+    private final Tree[]       trees;
+    private final ForkJoinPool pool;
+
+    private long playouts;
+
+    // playouts and millis bound each call to bestMove(), UNLIMITED meaning that only the other one does
+    // nodes: how large each thread's pool may grow
+    MonteCarloSearch(Rules rules, int players, long playouts, long millis, int nodes, int threads, long seed)
+    {
+        this.rules = Objects.requireNonNull(rules);
+        if (players < 2)
+        {
+            throw new IllegalArgumentException("a game needs at least 2 players, got " + players);
+        }
+        if (playouts < 0 || millis < 0 || playouts == UNLIMITED && millis == UNLIMITED)
+        {
+            throw new IllegalArgumentException(String.format("invalid search budgets: %d playouts, %dms",
+                                                             playouts,
+                                                             millis));
+        }
+        if (threads < 1)
+        {
+            throw new IllegalArgumentException("a search needs at least 1 thread, got " + threads);
+        }
+        if (nodes <= rules.getWidth())
+        {
+            throw new IllegalArgumentException("a tree needs room for at least a root and its children, got " + nodes);
+        }
+        this.players = players;
+        this.playoutBudget = playouts;
+        this.budgetNanos = millis * 1_000_000L;
+        this.trees = new Tree[threads];
+        Random seeds = new Random(seed);
+        for (int i = 0; i < threads; i++)
+        {
+            this.trees[i] = new Tree(nodes, seeds.nextLong());
+        }
+        this.pool = threads > 1 ? new ForkJoinPool(threads - 1) : null;
+    }
+
+    int getThreads()
+    {
+        return this.trees.length;
+    }
+
+    // playouts run by every thread during the last call to bestMove()
+    long getPlayouts()
+    {
+        return this.playouts;
+    }
+
+    // nodes in use in every thread's tree
+    long getNodes()
+    {
+        long nodes = 0;
+        for (Tree tree : this.trees)
+        {
+            nodes += tree.size;
+        }
+        return nodes;
+    }
+
+    // drops every tree
+    void clear()
+    {
+        for (Tree tree : this.trees)
+        {
+            tree.played = -1;
+        }
+    }
+
+    // tie breaks and random games drawn as if the search had been built with that seed
+    void reseed(long seed)
+    {
+        Random seeds = new Random(seed);
+        for (Tree tree : this.trees)
+        {
+            tree.random.setSeed(seeds.nextLong());
+        }
+    }
+
+    /*
+     * board must not be over, and history must hold the columns played so far, from the empty board:
+     * the trees grown during the previous call are kept if the game went on from their root
+     */
+    int bestMove(Board board, byte[] history)
+    {
+        Objects.requireNonNull(board);
+        Objects.requireNonNull(history);
+        if (board.isFull())
+        {
+            throw new IllegalArgumentException("no move left to search");
+        }
+        long deadline = this.budgetNanos == UNLIMITED ? Long.MAX_VALUE : System.nanoTime() + this.budgetNanos;
+        long share    = this.playoutBudget == UNLIMITED ? Long.MAX_VALUE : this.playoutBudget / this.trees.length;
+
+        ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[this.trees.length - 1];
+        for (int i = 1; i < this.trees.length; i++)
+        {
+            Tree tree = this.trees[i];
+            tasks[i - 1] = this.pool.submit(() -> tree.search(board.copy(), history, share, deadline));
+        }
+        long rest = this.playoutBudget == UNLIMITED ? 0 : this.playoutBudget % this.trees.length;
+        this.trees[0].search(board.copy(), history, share + rest, deadline);
+        for (ForkJoinTask<?> task : tasks)
+        {
+            task.join();
+        }
+
+        // every tree has the same children at the root, but in a pool of its own
+        long[] visits = new long[this.rules.getWidth()];
+        this.playouts = 0;
+        for (Tree tree : this.trees)
+        {
+            this.playouts += tree.playouts;
+            for (int i = 0; i < tree.children[0]; i++)
+            {
+                int child = tree.firstChild[0] + i;
+                visits[tree.move[child]] += tree.visits[child];
+            }
+        }
+        int best = -1;
+        for (int col = 0; col < visits.length; col++)
+        {
+            if (board.canPlay(col) && (best < 0 || visits[col] > visits[best]))
+            {
+                best = col;
+            }
+        }
+        return best;
+    }
+
+    // stops the helper threads, once the search is no longer needed
+    void shutdown()
+    {
+        if (this.pool != null)
+        {
+            this.pool.shutdownNow();
+        }
+    }
+
+    // one thread's tree, in a pool of nodes: the children of a node are made together, and follow each other
+    private final class Tree
+    {
+        private final Random random;
+        private final int    maxNodes;
+
+        private int[]     firstChild;
+        private int[]     visits;
+        // summed over the playouts through the node, for the player who played its move: 1 per win, 1/players per draw
+        private float[]   reward;
+        private byte[]    move;
+        // 0 until the node is expanded
+        private byte[]    children;
+        // whether the node's move won the game
+        private boolean[] won;
+        // where reuse() moves the subtree of the next root, before both pools swap
+        private int[]     nextFirstChild;
+        private int[]     nextVisits;
+        private float[]   nextReward;
+        private byte[]    nextMove;
+        private byte[]    nextChildren;
+        private boolean[] nextWon;
+        private int       size;
+
+        // the root is the position after the first played columns of history, none yet if played is -1
+        private final byte[] history;
+        private int          played = -1;
+
+        // nodes walked through by a playout, from the root, then the columns of its random game
+        private final int[] path;
+        private final int[] randomMoves;
+        private final int[] columns;
+        private long        playouts;
+
+        Tree(int nodes, long seed)
+        {
+            int cells = MonteCarloSearch.this.rules.getCells();
+            this.random = new Random(seed);
+            this.maxNodes = nodes;
+            this.grow(Math.min(nodes, FIRST_NODES));
+            this.history = new byte[cells];
+            this.path = new int[cells + 1];
+            this.randomMoves = new int[cells];
+            this.columns = new int[MonteCarloSearch.this.rules.getWidth()];
+        }
+
+        void search(Board board, byte[] history, long budget, long deadline)
+        {
+            int moves = board.getMoves();
+            if (!this.reuse(history, moves))
+            {
+                this.size = 1;
+                this.clearNode(0);
+            }
+            System.arraycopy(history, 0, this.history, 0, moves);
+            this.played = moves;
+
+            int rootSide = board.getSideToMove();
+            for (this.playouts = 0; this.playouts < budget; this.playouts++)
+            {
+                if (this.playouts > 0 && (this.playouts & CLOCK_CHECK) == 0 && System.nanoTime() >= deadline)
+                {
+                    break;
+                }
+                this.playout(board, rootSide);
+            }
+        }
+
+        // one walk down the tree, at most one new node, one random game from there, and its result back up the walk
+        private void playout(Board board, int rootSide)
+        {
+            int players = MonteCarloSearch.this.players;
+            int node    = 0;
+            int depth   = 0;
+            int winner  = -1;
+            this.path[0] = 0;
+            while (true)
+            {
+                if (this.won[node])
+                {
+                    winner = (rootSide + depth - 1) % players;
+                    break;
+                }
+                if (board.isFull())
+                {
+                    break;
+                }
+                if (this.children[node] == 0
+                    && (node != 0 && this.visits[node] == 0 || !this.expand(node, board)))
+                {
+                    // a leaf never visited before, or no room left in the pool
+                    winner = this.randomGame(board);
+                    break;
+                }
+                node = this.select(node);
+                board.play(this.move[node]);
+                this.path[++depth] = node;
+            }
+
+            for (int d = depth; d >= 0; d--)
+            {
+                int n = this.path[d];
+                this.visits[n]++;
+                if (d > 0)
+                {
+                    int mover = (rootSide + d - 1) % players;
+                    this.reward[n] += winner < 0 ? 1f / players : winner == mover ? 1f : 0f;
+                    board.undo(this.move[n]);
+                }
+            }
+        }
+
+        // the child with the highest upper confidence bound, children never visited first
+        private int select(int node)
+        {
+            int   first = this.firstChild[node];
+            int   best  = first;
+            float max   = Float.NEGATIVE_INFINITY;
+            float log   = (float) Math.log(this.visits[node]);
+            for (int child = first; child < first + this.children[node]; child++)
+            {
+                int n = this.visits[child];
+                if (n == 0)
+                {
+                    return child;
+                }
+                float ucb = this.reward[child] / n + EXPLORATION * (float) Math.sqrt(log / n);
+                if (ucb > max)
+                {
+                    max = ucb;
+                    best = child;
+                }
+            }
+            return best;
+        }
+
+        // makes a child for every playable column, unless the pool is full
+        private boolean expand(int node, Board board)
+        {
+            int count = 0;
+            for (int col = 0; col < this.columns.length; col++)
+            {
+                if (board.canPlay(col))
+                {
+                    this.columns[count++] = col;
+                }
+            }
+            if (this.size + count > this.visits.length)
+            {
+                if (this.size + count > this.maxNodes)
+                {
+                    return false;
+                }
+                this.grow((int) Math.min(this.maxNodes, Math.max(2L * this.visits.length, this.size + count)));
+            }
+            this.firstChild[node] = this.size;
+            this.children[node] = (byte) count;
+            for (int i = 0; i < count; i++)
+            {
+                int child = this.size + i;
+                this.clearNode(child);
+                this.move[child] = (byte) this.columns[i];
+                this.won[child] = board.isWinningMove(this.columns[i]);
+            }
+            this.size += count;
+            return true;
+        }
+
+        // plays at random until someone wins or the board is full, then takes it all back: returns the winner or -1
+        private int randomGame(Board board)
+        {
+            int moves  = 0;
+            int winner = -1;
+            while (winner < 0 && !board.isFull())
+            {
+                int count = 0;
+                for (int col = 0; col < this.columns.length; col++)
+                {
+                    if (board.canPlay(col))
+                    {
+                        if (board.isWinningMove(col))
+                        {
+                            winner = board.getSideToMove();
+                            break;
+                        }
+                        this.columns[count++] = col;
+                    }
+                }
+                if (winner < 0)
+                {
+                    int col = this.columns[this.random.nextInt(count)];
+                    board.play(col);
+                    this.randomMoves[moves++] = col;
+                }
+            }
+            while (moves > 0)
+            {
+                board.undo(this.randomMoves[--moves]);
+            }
+            return winner;
+        }
+
+        // both pools to nodes nodes each, keeping the tree: the other pool only matters during compact()
+        private void grow(int nodes)
+        {
+            this.firstChild = this.firstChild == null ? new int[nodes] : Arrays.copyOf(this.firstChild, nodes);
+            this.visits = this.visits == null ? new int[nodes] : Arrays.copyOf(this.visits, nodes);
+            this.reward = this.reward == null ? new float[nodes] : Arrays.copyOf(this.reward, nodes);
+            this.move = this.move == null ? new byte[nodes] : Arrays.copyOf(this.move, nodes);
+            this.children = this.children == null ? new byte[nodes] : Arrays.copyOf(this.children, nodes);
+            this.won = this.won == null ? new boolean[nodes] : Arrays.copyOf(this.won, nodes);
+            this.nextFirstChild = new int[nodes];
+            this.nextVisits = new int[nodes];
+            this.nextReward = new float[nodes];
+            this.nextMove = new byte[nodes];
+            this.nextChildren = new byte[nodes];
+            this.nextWon = new boolean[nodes];
+        }
+
+        private void clearNode(int node)
+        {
+            this.visits[node] = 0;
+            this.reward[node] = 0f;
+            this.children[node] = 0;
+            this.won[node] = false;
+        }
+
+        // moves the subtree of the position after moves columns of history to the front of the pool, if there is one
+        private boolean reuse(byte[] history, int moves)
+        {
+            if (this.played < 0 || this.played > moves)
+            {
+                return false;
+            }
+            for (int i = 0; i < this.played; i++)
+            {
+                if (this.history[i] != history[i])
+                {
+                    return false;
+                }
+            }
+            int root = 0;
+            for (int i = this.played; i < moves; i++)
+            {
+                int first = this.firstChild[root];
+                int next  = -1;
+                for (int child = first; child < first + this.children[root]; child++)
+                {
+                    if (this.move[child] == history[i])
+                    {
+                        next = child;
+                        break;
+                    }
+                }
+                if (next < 0)
+                {
+                    return false;
+                }
+                root = next;
+            }
+            if (root != 0)
+            {
+                this.compact(root);
+            }
+            return true;
+        }
+
+        /*
+         * copies root and its descendants breadth first into the other pool, then swaps pools.
+         * until a copied node's own children are copied, its first child holds its index in the old pool
+         */
+        private void compact(int root)
+        {
+            this.copyNode(root, 0);
+            int next = 1;
+            for (int n = 0; n < next; n++)
+            {
+                int old   = this.nextFirstChild[n];
+                int count = this.children[old];
+                if (count > 0)
+                {
+                    int first = this.firstChild[old];
+                    this.nextFirstChild[n] = next;
+                    for (int i = 0; i < count; i++)
+                    {
+                        this.copyNode(first + i, next + i);
+                    }
+                    next += count;
+                }
+            }
+            this.size = next;
+
+            int[] firstChild = this.firstChild;
+            this.firstChild = this.nextFirstChild;
+            this.nextFirstChild = firstChild;
+            int[] visits = this.visits;
+            this.visits = this.nextVisits;
+            this.nextVisits = visits;
+            float[] reward = this.reward;
+            this.reward = this.nextReward;
+            this.nextReward = reward;
+            byte[] move = this.move;
+            this.move = this.nextMove;
+            this.nextMove = move;
+            byte[] children = this.children;
+            this.children = this.nextChildren;
+            this.nextChildren = children;
+            boolean[] won = this.won;
+            this.won = this.nextWon;
+            this.nextWon = won;
+        }
+
+        private void copyNode(int from, int to)
+        {
+            this.nextFirstChild[to] = from;
+            this.nextVisits[to] = this.visits[from];
+            this.nextReward[to] = this.reward[from];
+            this.nextMove[to] = this.move[from];
+            this.nextChildren[to] = this.children[from];
+            this.nextWon[to] = this.won[from];
+        }
+    }
+}
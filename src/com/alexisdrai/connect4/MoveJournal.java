@@ -0,0 +1,145 @@
+package com.alexisdrai.connect4;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Objects;
+
+/*
+ * append-only log of the moves played since the last snapshot of a game (see C4Game.journalTo())
+ *
+ * each move is a fixed-size record of RECORD_BYTES bytes: the journal's generation (byte), the move's number in the
+ * game (unsigned short), its column (byte), and a checksum of the three (byte), so that a record torn by a crash is
+ * recognized and ignored, along with anything after it.
+ * the generation is saved in the snapshot too: records left over from another game (if a crash hit between a new
+ * game's first snapshot and the truncation of the old journal) are told apart that way, and records for moves the
+ * snapshot already holds are simply skipped.
+ */
+final class MoveJournal implements AutoCloseable
+{
+    static final int RECORD_BYTES = 5;
+
+    private final FileChannel channel;
+    private final ByteBuffer  record = ByteBuffer.allocate(RECORD_BYTES);
+    private final byte        generation;
+    private final int         syncEvery;
+
+    private int unsynced;
+
+    // syncEvery: how many records may be written before they are forced to disk (0 to leave that to the system)
+    MoveJournal(Path path, byte generation, int syncEvery) throws IOException
+    {
+        Objects.requireNonNull(path);
+        if (syncEvery < 0)
+        {
+            throw new IllegalArgumentException("cannot sync every " + syncEvery + " moves");
+        }
+        this.channel = FileChannel.open(path,
+                                        StandardOpenOption.CREATE,
+                                        StandardOpenOption.WRITE,
+                                        StandardOpenOption.APPEND);
+        this.generation = generation;
+        this.syncEvery = syncEvery;
+        this.unsynced = 0;
+    }
+
+    // where the journal of a game snapshotted at that path lives
+    static Path pathFor(Path snapshot)
+    {
+        return snapshot.resolveSibling(snapshot.getFileName() + ".journal");
+    }
+
+    void append(int moveIdx, int columnIdx) throws IOException
+    {
+        this.record.clear();
+        this.record.put(this.generation);
+        this.record.putShort((short) moveIdx);
+        this.record.put((byte) columnIdx);
+        this.record.put(checksum(this.generation, moveIdx, columnIdx));
+        this.record.flip();
+        while (this.record.hasRemaining())
+        {
+            this.channel.write(this.record);
+        }
+
+        this.unsynced++;
+        if (this.syncEvery > 0 && this.unsynced >= this.syncEvery)
+        {
+            this.sync();
+        }
+    }
+
+    void sync() throws IOException
+    {
+        this.channel.force(false);
+        this.unsynced = 0;
+    }
+
+    // to be called once a snapshot holds every move journaled so far
+    void truncate() throws IOException
+    {
+        this.channel.truncate(0);
+        this.channel.force(false);
+        this.unsynced = 0;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        if (this.unsynced > 0)
+        {
+            this.sync();
+        }
+        this.channel.close();
+    }
+
+    // the columns journaled by that generation for moves firstMoveIdx and after, in order,
+    // up to the first missing or damaged record, in a game of at most maxMoves moves
+    static int[] read(Path path, byte generation, int firstMoveIdx, int maxMoves) throws IOException
+    {
+        Objects.requireNonNull(path);
+        if (!Files.exists(path))
+        {
+            return new int[0];
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+
+        int[] columns = new int[maxMoves];
+        int   count   = 0;
+        while (buffer.remaining() >= RECORD_BYTES)
+        {
+            byte recordGeneration = buffer.get();
+            int  moveIdx          = Short.toUnsignedInt(buffer.getShort());
+            byte column           = buffer.get();
+            byte checksum         = buffer.get();
+            if (checksum != checksum(recordGeneration, moveIdx, column) || moveIdx >= maxMoves || column < 0)
+            {
+                break;
+            }
+            if (recordGeneration != generation)
+            {
+                continue; // left over from another game
+            }
+            if (moveIdx < firstMoveIdx)
+            {
+                continue; // already in the snapshot
+            }
+            if (moveIdx != firstMoveIdx + count)
+            {
+                break; // a gap: whatever comes next cannot be replayed
+            }
+            columns[count] = column;
+            count++;
+        }
+        return Arrays.copyOf(columns, count);
+    }
+
+    private static byte checksum(byte generation, int moveIdx, int columnIdx)
+    {
+        return (byte) ((generation * 61) ^ (moveIdx * 31) ^ ((moveIdx >> 8) * 13) ^ (columnIdx * 17) ^ 0x5A);
+    }
+}
@@ -0,0 +1,326 @@
+package com.alexisdrai.connect4;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Random;
+
+/*
+ * evaluation of classic positions by an n-tuple network, trained by NTupleTrainer
+ *
+ * a tuple is a handful of cells, and each of the STATES^length ways they can be filled (empty, first player's,
+ * second player's) has a weight of its own: the value of a position is the sum of its tuples' weights, squashed
+ * between -1 (the second player wins) and 1 (the first player does). every tuple is also read on the mirror image
+ * of the board, with the same weights, so that mirror images are worth the same.
+ * Features keeps each tuple's index in its weights in step with the moves, so that evaluating a position takes
+ * one array read per tuple
+ *
+ * file layout (big endian): MAGIC (int), VERSION (int), number of tuples (int), cells per tuple (int),
+ * then the cells of each tuple (bytes: column * HEIGHT + row), then the weights of each tuple in turn (floats),
+ * the state of the tuple's first cell being the lowest digit (base STATES) of a weight's index
+ */
+final class NTupleNetwork
+{
+    static final int MAGIC   = 0x43344E54; // "C4NT"
+    static final int VERSION = 1;
+    static final int STATES  = 3;
+
+    private static final int HEADER_BYTES = 4 * Integer.BYTES;
+    private static final int MAX_EVAL     = Search.WIN_SCORE - 1;
+    // cells next to each other, as (column, row) steps, for random tuples to wind through
+    private static final int[][] NEIGHBOURS = {{-1, -1}, {-1, 0}, {-1, 1}, {0, -1}, {0, 1}, {1, -1}, {1, 0}, {1, 1}};
+
+    // tuples[t]: cells of tuple t, as column * HEIGHT + row
+    private final int[][]   tuples;
+    private final float[][] weights;
+    // for each cell, the tuples read through it: 2 * t for tuple t, 2 * t + 1 for its mirror image,
+    // and how much a token of the first player there adds to their index (twice that for the second player)
+    private final int[][]   readersOf;
+    private final int[][]   powersOf;
+
+    private NTupleNetwork(int[][] tuples, float[][] weights)
+    {
+        this.tuples = tuples;
+        this.weights = weights;
+        this.readersOf = new int[Position.CELLS][];
+        this.powersOf = new int[Position.CELLS][];
+        for (int cell = 0; cell < Position.CELLS; cell++)
+        {
+            int[] readers = new int[2 * tuples.length * tuples[0].length];
+            int[] powers  = new int[readers.length];
+            int   count   = 0;
+            for (int t = 0; t < tuples.length; t++)
+            {
+                int power = 1;
+                for (int tupleCell : tuples[t])
+                {
+                    if (tupleCell == cell)
+                    {
+                        readers[count] = 2 * t;
+                        powers[count++] = power;
+                    }
+                    if (mirror(tupleCell) == cell)
+                    {
+                        readers[count] = 2 * t + 1;
+                        powers[count++] = power;
+                    }
+                    power *= STATES;
+                }
+            }
+            this.readersOf[cell] = Arrays.copyOf(readers, count);
+            this.powersOf[cell] = Arrays.copyOf(powers, count);
+        }
+    }
+
+    // count tuples of length cells each, winding through neighbouring cells from random ones, all weights at 0
+    static NTupleNetwork random(int count, int length, Random random)
+    {
+        if (count < 1 || length < 1 || length > Position.CELLS || Math.pow(STATES, length) > Integer.MAX_VALUE)
+        {
+            throw new IllegalArgumentException(String.format("invalid network: %d tuples of %d cells", count, length));
+        }
+        int[][]   tuples  = new int[count][];
+        float[][] weights = new float[count][];
+        for (int t = 0; t < count; t++)
+        {
+            tuples[t] = randomTuple(length, random);
+            weights[t] = new float[(int) Math.pow(STATES, length)];
+        }
+        return new NTupleNetwork(tuples, weights);
+    }
+
+    static NTupleNetwork load(Path path) throws IOException
+    {
+        Objects.requireNonNull(path);
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+        if (buffer.remaining() < HEADER_BYTES || buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+        {
+            throw new IOException(path + " is not a version " + VERSION + " n-tuple network");
+        }
+        int count  = buffer.getInt();
+        int length = buffer.getInt();
+        if (count < 1 || length < 1 || length > Position.CELLS || Math.pow(STATES, length) > Integer.MAX_VALUE
+            || buffer.remaining() != count * (length + (long) Math.pow(STATES, length) * Float.BYTES))
+        {
+            throw new IOException(path + " is truncated or corrupted");
+        }
+        int[][] tuples = new int[count][length];
+        for (int[] tuple : tuples)
+        {
+            for (int i = 0; i < length; i++)
+            {
+                tuple[i] = buffer.get();
+                if (tuple[i] < 0 || tuple[i] >= Position.CELLS)
+                {
+                    throw new IOException(path + " has a tuple through cell " + tuple[i]);
+                }
+            }
+        }
+        float[][]   weights = new float[count][(int) Math.pow(STATES, length)];
+        FloatBuffer floats  = buffer.asFloatBuffer();
+        for (float[] tupleWeights : weights)
+        {
+            floats.get(tupleWeights);
+        }
+        return new NTupleNetwork(tuples, weights);
+    }
+
+    // written next to path first, then moved over it, so that bots never load a half-written network
+    void save(Path path) throws IOException
+    {
+        Objects.requireNonNull(path);
+        int        length = this.tuples[0].length;
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES
+                                                + this.tuples.length * (length + this.weights[0].length * Float.BYTES));
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(this.tuples.length).putInt(length);
+        for (int[] tuple : this.tuples)
+        {
+            for (int cell : tuple)
+            {
+                buffer.put((byte) cell);
+            }
+        }
+        FloatBuffer floats = buffer.asFloatBuffer();
+        for (float[] tupleWeights : this.weights)
+        {
+            floats.put(tupleWeights);
+        }
+        buffer.rewind();
+
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary,
+                                                    StandardOpenOption.CREATE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING,
+                                                    StandardOpenOption.WRITE))
+        {
+            while (buffer.hasRemaining())
+            {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    int getTupleCount()
+    {
+        return this.tuples.length;
+    }
+
+    int getTupleLength()
+    {
+        return this.tuples[0].length;
+    }
+
+    Features newFeatures()
+    {
+        return new Features();
+    }
+
+    // index of the cell in the same place on the mirror image
+    private static int mirror(int cell)
+    {
+        return (Position.WIDTH - 1 - cell / Position.HEIGHT) * Position.HEIGHT + cell % Position.HEIGHT;
+    }
+
+    private static int[] randomTuple(int length, Random random)
+    {
+        boolean[] taken = new boolean[Position.CELLS];
+        int[]     tuple = new int[length];
+        int       cell  = random.nextInt(Position.CELLS);
+        for (int i = 0; i < length; i++)
+        {
+            tuple[i] = cell;
+            taken[cell] = true;
+            if (i == length - 1)
+            {
+                break;
+            }
+            // the next cell neighbours one of the cells so far, so that tuples stay in one piece
+            int next;
+            do
+            {
+                int   from = tuple[random.nextInt(i + 1)];
+                int[] step = NEIGHBOURS[random.nextInt(NEIGHBOURS.length)];
+                int   col  = from / Position.HEIGHT + step[0];
+                int   row  = from % Position.HEIGHT + step[1];
+                next = col < 0 || col >= Position.WIDTH || row < 0 || row >= Position.HEIGHT
+                       ? -1
+                       : col * Position.HEIGHT + row;
+            } while (next < 0 || taken[next]);
+            cell = next;
+        }
+        return tuple;
+    }
+
+    /*
+     * the network's view of a position, kept in step with it move by move like ThreatTracker.
+     * each one belongs to a single thread, and all of them read the network's weights, which only NTupleTrainer
+     * ever changes
+     */
+    final class Features
+    {
+        private final int[] indices = new int[2 * NTupleNetwork.this.tuples.length];
+        private final int[] heights = new int[Position.WIDTH];
+
+        private int moves;
+
+        // starts over from that position, without allocating anything
+        void set(Position position)
+        {
+            Objects.requireNonNull(position);
+            Arrays.fill(this.indices, 0);
+            for (int col = 0; col < Position.WIDTH; col++)
+            {
+                this.heights[col] = position.height(col);
+                for (int row = 0; row < this.heights[col]; row++)
+                {
+                    this.update(col * Position.HEIGHT + row, 1 + position.owner(col, row));
+                }
+            }
+            this.moves = position.getMoves();
+        }
+
+        void play(int col)
+        {
+            this.update(col * Position.HEIGHT + this.heights[col]++, 1 + (this.moves++ & 1));
+        }
+
+        // takes back the last move, which must have been played in col
+        void undo(int col)
+        {
+            this.update(col * Position.HEIGHT + --this.heights[col], -(1 + (--this.moves & 1)));
+        }
+
+        // between -1 (the second player wins) and 1 (the first player does)
+        double value()
+        {
+            return Math.tanh(this.sum());
+        }
+
+        // score of the position for the side to move, in Search's scale, strictly between a loss and a win
+        int evaluate()
+        {
+            double value = this.moves % 2 == 0 ? this.value() : -this.value();
+            return (int) Math.round(value * MAX_EVAL);
+        }
+
+        // each tuple's index in its weights, to hand back to learn() once the position has changed
+        int[] snapshot()
+        {
+            return this.indices.clone();
+        }
+
+        /*
+         * temporal difference learning: moves the value of the position the indices were taken in (see snapshot())
+         * by rate times the way to target, spread over its tuples. returns by how much it was off
+         */
+        double learn(int[] indices, double target, double rate)
+        {
+            float[][] weights = NTupleNetwork.this.weights;
+            double    sum     = 0;
+            for (int i = 0; i < indices.length; i++)
+            {
+                sum += weights[i >> 1][indices[i]];
+            }
+            double value = Math.tanh(sum);
+            double error = target - value;
+            // the derivative of tanh, and each tuple read on both sides of the board sharing the step
+            float  step  = (float) (rate * error * (1 - value * value) / indices.length);
+            for (int i = 0; i < indices.length; i++)
+            {
+                weights[i >> 1][indices[i]] += step;
+            }
+            return error;
+        }
+
+        private double sum()
+        {
+            float[][] weights = NTupleNetwork.this.weights;
+            double    sum     = 0;
+            for (int i = 0; i < this.indices.length; i++)
+            {
+                sum += weights[i >> 1][this.indices[i]];
+            }
+            return sum;
+        }
+
+        // a token of state was added to cell (removed, if state is negative)
+        private void update(int cell, int state)
+        {
+            int[] readers = NTupleNetwork.this.readersOf[cell];
+            int[] powers  = NTupleNetwork.this.powersOf[cell];
+            for (int i = 0; i < readers.length; i++)
+            {
+                this.indices[readers[i]] += state * powers[i];
+            }
+        }
+    }
+}
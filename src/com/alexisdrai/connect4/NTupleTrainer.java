@@ -0,0 +1,240 @@
+package com.alexisdrai.connect4;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/*
+ * trains an NTupleNetwork by temporal difference learning, from games it plays against itself on one core
+ *
+ * each side plays the move leading to the position the network likes best for it (a winning move whenever there is
+ * one), or now and then a random one, so that it gets to see more than its own favourite lines. after every move
+ * but a random one, the position it was played in learns the value of the position it led to, and the last position
+ * of a game learns its outcome. every tenth of the way, the network plays a match against a bot picking moves by
+ * ThreatTracker.evaluate() (both one move ahead) and saves its weights, so that training can be stopped at any time
+ *
+ * an existing network file is trained further rather than started over, whatever tuples are asked for
+ *
+ * usage: java -cp build com.alexisdrai.connect4.NTupleTrainer [file] [games] [tuples] [cells per tuple] [seed]
+ */
+public class NTupleTrainer
+{
+    private static final double LEARNING_RATE = 0.1;
+    private static final int    RANDOM_ODDS   = 10; // one move in RANDOM_ODDS is random, the others are the best
+    private static final int    REPORTS       = 10;
+    private static final int    MATCH_GAMES   = 500;
+    private static final int    MATCH_RANDOM  = 4; // random moves opening each game of a match, so that games differ
+
+    private final NTupleNetwork          network;
+    private final NTupleNetwork.Features features;
+    private final Position               position = new Position();
+    private final Random                 random;
+
+    NTupleTrainer(NTupleNetwork network, Random random)
+    {
+        this.network = network;
+        this.features = network.newFeatures();
+        this.random = random;
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        Path path   = args.length > 0 ? Paths.get(args[0]) : C4Game.NETWORK_PATH;
+        long games  = args.length > 1 ? Long.parseLong(args[1]) : 1_000_000L;
+        int  tuples = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+        int  length = args.length > 3 ? Integer.parseInt(args[3]) : 8;
+        long seed   = args.length > 4 ? Long.parseLong(args[4]) : 0L;
+
+        Random        random  = new Random(seed);
+        NTupleNetwork network = Files.exists(path)
+                                ? NTupleNetwork.load(path)
+                                : NTupleNetwork.random(tuples, length, random);
+        NTupleTrainer trainer = new NTupleTrainer(network, random);
+        System.out.printf("training %d tuples of %d cells over %d games%n",
+                          network.getTupleCount(),
+                          network.getTupleLength(),
+                          games);
+
+        long startTime = System.nanoTime();
+        long played    = 0;
+        for (int report = 1; report <= REPORTS; report++)
+        {
+            double error = 0;
+            long   moves = 0;
+            for (long until = games * report / REPORTS; played < until; played++)
+            {
+                double[] errors = trainer.selfPlay();
+                error += errors[0];
+                moves += (long) errors[1];
+            }
+            network.save(path);
+            int[] match = trainer.match(MATCH_GAMES);
+            System.out.printf("%d games in %.1fs: mean squared error %.4f, " +
+                              "then %d wins, %d draws and %d losses against ThreatTracker%n",
+                              played,
+                              (System.nanoTime() - startTime) / 1e9,
+                              moves == 0 ? 0 : error / moves,
+                              match[0],
+                              match[1],
+                              match[2]);
+        }
+        System.out.println("network written to " + path);
+    }
+
+    // one game against itself, learning as it goes: returns the sum of its squared errors, and how many there were
+    double[] selfPlay()
+    {
+        this.position.copy(new Position());
+        this.features.set(this.position);
+        double error = 0;
+        int    count = 0;
+        while (true)
+        {
+            int[]   before = this.features.snapshot();
+            int     win    = this.winningMove();
+            boolean chosen = win < 0 && this.random.nextInt(RANDOM_ODDS) != 0;
+            int     col    = win >= 0 ? win : chosen ? this.bestMove() : this.randomMove();
+            int     side   = this.position.getSideToMove();
+            this.play(col);
+
+            double target;
+            if (win >= 0)
+            {
+                target = side == 0 ? 1 : -1;
+            }
+            else if (this.position.isFull())
+            {
+                target = 0;
+            }
+            else if (chosen)
+            {
+                target = this.features.value();
+            }
+            else
+            {
+                continue; // a random move says nothing about what the position before it was worth
+            }
+            double delta = this.features.learn(before, target, LEARNING_RATE);
+            error += delta * delta;
+            count++;
+            if (win >= 0 || this.position.isFull())
+            {
+                return new double[] {error, count};
+            }
+        }
+    }
+
+    // games against a bot that plays the move ThreatTracker.evaluate() likes best: wins, draws and losses
+    int[] match(int games)
+    {
+        int[]         results = new int[3];
+        ThreatTracker threats = new ThreatTracker();
+        for (int game = 0; game < games; game++)
+        {
+            int networkSide = game % 2;
+            this.position.copy(new Position());
+            for (int i = 0; i < MATCH_RANDOM; i++)
+            {
+                this.position.play(this.random.nextInt(Position.WIDTH));
+            }
+            this.features.set(this.position);
+            threats.set(this.position);
+            while (true)
+            {
+                int side = this.position.getSideToMove();
+                int col  = this.winningMove();
+                if (col >= 0)
+                {
+                    results[side == networkSide ? 0 : 2]++;
+                    break;
+                }
+                col = side == networkSide ? this.bestMove() : bestByThreats(this.position, threats);
+                this.play(col);
+                threats.play(col);
+                if (this.position.isFull())
+                {
+                    results[1]++;
+                    break;
+                }
+            }
+        }
+        return results;
+    }
+
+    private void play(int col)
+    {
+        this.position.play(col);
+        this.features.play(col);
+    }
+
+    private int winningMove()
+    {
+        for (int col = 0; col < Position.WIDTH; col++)
+        {
+            if (this.position.canPlay(col) && this.position.isWinningMove(col))
+            {
+                return col;
+            }
+        }
+        return -1;
+    }
+
+    private int randomMove()
+    {
+        int col;
+        do
+        {
+            col = this.random.nextInt(Position.WIDTH);
+        } while (!this.position.canPlay(col));
+        return col;
+    }
+
+    // the column leading to the position the network finds best for the side to move
+    private int bestMove()
+    {
+        int    sign    = this.position.getSideToMove() == 0 ? 1 : -1;
+        int    bestCol = -1;
+        double best    = Double.NEGATIVE_INFINITY;
+        for (int col : Search.COLUMN_ORDER)
+        {
+            if (!this.position.canPlay(col))
+            {
+                continue;
+            }
+            this.features.play(col);
+            double value = sign * this.features.value();
+            this.features.undo(col);
+            if (value > best)
+            {
+                best = value;
+                bestCol = col;
+            }
+        }
+        return bestCol;
+    }
+
+    private static int bestByThreats(Position position, ThreatTracker threats)
+    {
+        int bestCol = -1;
+        int best    = Integer.MIN_VALUE;
+        for (int col : Search.COLUMN_ORDER)
+        {
+            if (!position.canPlay(col))
+            {
+                continue;
+            }
+            threats.play(col);
+            // from the opponent's point of view, once the move is played
+            int score = -threats.evaluate();
+            threats.undo(col);
+            if (score > best)
+            {
+                best = score;
+                bestCol = col;
+            }
+        }
+        return bestCol;
+    }
+}
@@ -0,0 +1,128 @@
+package com.alexisdrai.connect4;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+
+/*
+ * read-only view of a book file written by BookGenerator
+ *
+ * the file is memory-mapped as is, and never parsed: looking a position up is a binary search straight over the
+ * mapped pages, so only the pages the search touches ever get read from disk.
+ *
+ * layout (big endian):
+ *  header: MAGIC (int), VERSION (int), entry count (long)
+ *  entries, sorted by key: one long each, with
+ *      bits  0-49: Position.canonicalKey() (Position.key() in version 1 books)
+ *      bits 50-52: best column, on the mirror image if the key is that of the mirror image
+ *      bits 53-63: score of that column (signed), as given by Search
+ */
+final class OpeningBook
+{
+    static final int MAGIC        = 0x43344249; // "C4BI"
+    static final int VERSION      = 2;
+    static final int HEADER_BYTES = 2 * Integer.BYTES + Long.BYTES;
+
+    static final int  KEY_BITS  = 50;
+    static final long KEY_MASK  = (1L << KEY_BITS) - 1;
+    static final int  MOVE_BITS = 3;
+
+    private final LongBuffer entries;
+    // whether positions and their mirror images share entries, which only version 1 books do not
+    private final boolean    canonical;
+
+    private OpeningBook(LongBuffer entries, boolean canonical)
+    {
+        this.entries = entries;
+        this.canonical = canonical;
+    }
+
+    static OpeningBook open(Path path) throws IOException
+    {
+        Objects.requireNonNull(path);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+        {
+            // the mapping stays valid after the channel is closed
+            ByteBuffer buffer  = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            int        version = buffer.remaining() < HEADER_BYTES || buffer.getInt() != MAGIC ? 0 : buffer.getInt();
+            if (version < 1 || version > VERSION)
+            {
+                throw new IOException(path + " is not a version 1 to " + VERSION + " opening book");
+            }
+            long count = buffer.getLong();
+            if (count != (buffer.remaining() / Long.BYTES))
+            {
+                throw new IOException(path + " is truncated: expected " + count + " entries");
+            }
+            return new OpeningBook(buffer.slice().asLongBuffer(), version >= 2);
+        }
+    }
+
+    int size()
+    {
+        return this.entries.limit();
+    }
+
+    // best column for that position, or -1 if the book does not know it
+    int bestMove(Position position)
+    {
+        int idx = this.indexOf(this.canonical ? position.canonicalKey() : position.key());
+        if (idx < 0)
+        {
+            return -1;
+        }
+        int move = move(this.entries.get(idx));
+        return this.canonical && position.isMirrored() ? Position.mirror(move) : move;
+    }
+
+    // score of the best column for that position, or Integer.MIN_VALUE if the book does not know it
+    int score(Position position)
+    {
+        int idx = this.indexOf(this.canonical ? position.canonicalKey() : position.key());
+        return idx < 0 ? Integer.MIN_VALUE : score(this.entries.get(idx));
+    }
+
+    private int indexOf(long key)
+    {
+        int low  = 0;
+        int high = this.entries.limit() - 1;
+        while (low <= high)
+        {
+            int  mid      = (low + high) >>> 1;
+            long entry    = this.entries.get(mid);
+            long entryKey = entry & KEY_MASK;
+            if (entryKey < key)
+            {
+                low = mid + 1;
+            }
+            else if (entryKey > key)
+            {
+                high = mid - 1;
+            }
+            else
+            {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    static long entry(long key, int move, int score)
+    {
+        return key | (long) move << KEY_BITS | (long) score << (KEY_BITS + MOVE_BITS);
+    }
+
+    static int move(long entry)
+    {
+        return (int) (entry >>> KEY_BITS) & ((1 << MOVE_BITS) - 1);
+    }
+
+    static int score(long entry)
+    {
+        return (int) (entry >> (KEY_BITS + MOVE_BITS));
+    }
+}
@@ -0,0 +1,161 @@
+package com.alexisdrai.connect4;
+
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/*
+ * "lazy SMP": helper searches run the same iterative deepening as the main one, each on its own copy of the position,
+ * and only share its transposition table, which they fill with results the main search then picks up for free.
+ * only the main search's answer counts, and the helpers are stopped as soon as it is known.
+ *
+ * with a single thread, this is exactly a plain Search, so results stay deterministic
+ */
+final class ParallelSearch
+{
+    private final Search             main;
+    private final Search[]           helpers;
+    private final ForkJoinPool       pool;
+    private final TranspositionTable table;
+
+    ParallelSearch(int depth, TranspositionTable table, long millis, long nodeBudget, int threads)
+    {
+        if (threads < 1)
+        {
+            throw new IllegalArgumentException("a search needs at least 1 thread, got " + threads);
+        }
+        this.table = table;
+        this.main = new Search(depth, table, millis, nodeBudget);
+        this.helpers = new Search[threads - 1];
+        for (int i = 0; i < this.helpers.length; i++)
+        {
+            // helpers have no budget of their own, they run until the main search is done
+            this.helpers[i] = new Search(depth, Objects.requireNonNull(table), Search.UNLIMITED, Search.UNLIMITED);
+            this.helpers[i].setFirstDepth(1 + (i + 1) % 2);
+            // the main search alone starts each new search of the table
+            this.helpers[i].setAging(false);
+        }
+        this.pool = threads > 1 ? new ForkJoinPool(threads - 1) : null;
+    }
+
+    int getThreads()
+    {
+        return this.helpers.length + 1;
+    }
+
+    // positions visited by every thread during the last call to bestMove()
+    long getNodes()
+    {
+        long nodes = this.main.getNodes();
+        for (Search helper : this.helpers)
+        {
+            nodes += helper.getNodes();
+        }
+        return nodes;
+    }
+
+    // look-ups of the shared table by every thread during the last call to bestMove(), and how many were hits
+    long getTableProbes()
+    {
+        long probes = this.main.getTableProbes();
+        for (Search helper : this.helpers)
+        {
+            probes += helper.getTableProbes();
+        }
+        return probes;
+    }
+
+    long getTableHits()
+    {
+        long hits = this.main.getTableHits();
+        for (Search helper : this.helpers)
+        {
+            hits += helper.getTableHits();
+        }
+        return hits;
+    }
+
+    int getCompletedDepth()
+    {
+        return this.main.getCompletedDepth();
+    }
+
+    int getScore()
+    {
+        return this.main.getScore();
+    }
+
+    // see Search.setNetwork(), for every thread
+    void setNetwork(NTupleNetwork network)
+    {
+        this.main.setNetwork(network);
+        for (Search helper : this.helpers)
+        {
+            helper.setNetwork(network);
+        }
+    }
+
+    // see Search.setAging(): false when the table is not this search's alone
+    void setAging(boolean aging)
+    {
+        this.main.setAging(aging);
+    }
+
+    NTupleNetwork getNetwork()
+    {
+        return this.main.getNetwork();
+    }
+
+    TranspositionTable getTable()
+    {
+        return this.table;
+    }
+
+    // forgets every position searched so far
+    void clearTable()
+    {
+        if (this.table != null)
+        {
+            this.table.clear();
+        }
+    }
+
+    int bestMove(Position root)
+    {
+        Objects.requireNonNull(root);
+        if (this.pool == null)
+        {
+            return this.main.bestMove(root);
+        }
+
+        ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[this.helpers.length];
+        for (int i = 0; i < this.helpers.length; i++)
+        {
+            Search helper = this.helpers[i];
+            helper.setStopped(false);
+            tasks[i] = this.pool.submit(() -> helper.bestMove(root));
+        }
+        try
+        {
+            return this.main.bestMove(root);
+        } finally
+        {
+            for (Search helper : this.helpers)
+            {
+                helper.setStopped(true);
+            }
+            for (ForkJoinTask<?> task : tasks)
+            {
+                task.quietlyJoin();
+            }
+        }
+    }
+
+    void shutdown()
+    {
+        if (this.pool != null)
+        {
+            this.pool.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.alexisdrai.connect4;
+
+import java.util.Objects;
+
+/*
+ * thinks on the opponent's time: searches a position on a background thread for as long as whoever has to move there
+ * takes to choose, and stops as soon as they did.
+ * nothing is handed over directly: whatever it finds goes to the transposition table, which the bot it ponders for
+ * shares, so that the bot's own search after the actual reply finds most of its tree already there.
+ * the search is an analysing one (see Search.setAnalysing()), so that it also scores every column, for hints
+ */
+final class Ponderer
+{
+    private final Search   search;
+    private final Position position = new Position();
+
+    private Thread thread;
+    private long   startTime;
+
+    Ponderer(int depth, TranspositionTable table)
+    {
+        this(depth, table, null);
+    }
+
+    // network: how the bot pondered for evaluates positions (see Search.setNetwork()), so that the table holds
+    // the scores it would have found itself
+    Ponderer(int depth, TranspositionTable table, NTupleNetwork network)
+    {
+        this.search = new Search(depth, Objects.requireNonNull(table));
+        this.search.setAnalysing(true);
+        // the table belongs to the bot, whose own searches start each new one
+        this.search.setAging(false);
+        this.search.setNetwork(network);
+    }
+
+    // starts pondering position, unless that is what it is already doing
+    synchronized void start(Position position)
+    {
+        Objects.requireNonNull(position);
+        if (this.isPondering(position) || position.isFull())
+        {
+            return;
+        }
+        this.stop();
+        this.position.copy(position);
+        this.search.clearColumnScores();
+        this.search.setStopped(false);
+        this.startTime = System.nanoTime();
+        // a daemon, so that a human who quits mid-thought does not keep the process alive
+        this.thread = new Thread(() -> this.search.bestMove(this.position), "ponderer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    // returns once the search has noticed, so that it does not compete with the bot's own for the table and the CPU
+    synchronized void stop()
+    {
+        if (this.thread == null)
+        {
+            return;
+        }
+        this.search.setStopped(true);
+        boolean interrupted = false;
+        while (this.thread.isAlive())
+        {
+            try
+            {
+                this.thread.join();
+            } catch (InterruptedException e)
+            {
+                interrupted = true; // the search stops within a few nodes anyway
+            }
+        }
+        this.thread = null;
+        if (interrupted)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    synchronized boolean isPondering(Position position)
+    {
+        return this.thread != null
+               && this.position.getMoves() == position.getMoves()
+               && this.position.key() == position.key();
+    }
+
+    // nanoseconds spent on the current position so far, 0 if there is none
+    synchronized long getElapsed()
+    {
+        return this.thread == null ? 0 : System.nanoTime() - this.startTime;
+    }
+
+    // see Search.getColumnScores(), for the side to move of the position being pondered
+    int[] getColumnScores()
+    {
+        return this.search.getColumnScores();
+    }
+
+    int getDepth()
+    {
+        return this.search.getAnalysedDepth();
+    }
+}
@@ -0,0 +1,293 @@
+package com.alexisdrai.connect4;
+
+import java.util.Objects;
+
+/*
+ * bitboard representation of a 7x6 board: the Board of the classic 2-player game
+ *
+ * each column takes HEIGHT + 1 bits (the extra bit is a sentinel that keeps lines from wrapping onto the next column),
+ * from the bottom up, so that the cell at (col, row) is bit (col * H1 + row), with row 0 at the bottom:
+ *
+ *  .  .  .  .  .  .  .
+ *  5 12 19 26 33 40 47
+ *  4 11 18 25 32 39 46
+ *  3 10 17 24 31 38 45
+ *  2  9 16 23 30 37 44
+ *  1  8 15 22 29 36 43
+ *  0  7 14 21 28 35 42
+ *
+ * stones[i] holds the tokens of the i-th player, mask holds every token on the board (so it also encodes heights).
+ * mirrored and mirrorMask hold the same for the board's mirror image (column c being column WIDTH - 1 - c there),
+ * kept up to date move by move, so that canonicalKey() costs no more than key()
+ */
+final class Position implements Board
+{
+    static final int WIDTH  = 7;
+    static final int HEIGHT = 6;
+    static final int CELLS  = WIDTH * HEIGHT;
+
+    private static final int  H1          = HEIGHT + 1;
+    private static final long BOTTOM_MASK = bottomMask();
+    private static final long BOARD_MASK  = BOTTOM_MASK * ((1L << HEIGHT) - 1);
+    // shifts for '|', '-', '/' and '\' respectively
+    private static final int[] DIRECTIONS = {1, H1, H1 + 1, H1 - 1};
+    private static final int[] SIDEWAYS   = {H1, H1 + 1, H1 - 1};
+
+    private final long[] stones   = new long[2];
+    private final long[] mirrored = new long[2];
+
+    private long mask;
+    private long mirrorMask;
+    private int  moves;
+
+    Position()
+    {
+        this.mask = 0L;
+        this.mirrorMask = 0L;
+        this.moves = 0;
+    }
+
+    Position(Position other)
+    {
+        this.copy(other);
+    }
+
+    // becomes a copy of other, without allocating anything
+    void copy(Position other)
+    {
+        Objects.requireNonNull(other);
+        this.stones[0] = other.stones[0];
+        this.stones[1] = other.stones[1];
+        this.mirrored[0] = other.mirrored[0];
+        this.mirrored[1] = other.mirrored[1];
+        this.mask = other.mask;
+        this.mirrorMask = other.mirrorMask;
+        this.moves = other.moves;
+    }
+
+    @Override
+    public Position copy()
+    {
+        return new Position(this);
+    }
+
+    // replays a sequence of 1-based column numbers, e.g. "4453"
+    static Position of(String moves)
+    {
+        Objects.requireNonNull(moves);
+        Position position = new Position();
+        for (int i = 0; i < moves.length(); i++)
+        {
+            int col = moves.charAt(i) - '1';
+            if (col < 0 || col >= WIDTH || !position.canPlay(col) || position.isWinningMove(col))
+            {
+                throw new IllegalArgumentException(String.format("invalid move '%c' at index %d of \"%s\"",
+                                                                 moves.charAt(i), i, moves));
+            }
+            position.play(col);
+        }
+        return position;
+    }
+
+    // index (in C4Game.players) of the player whose turn it is
+    @Override
+    public int getSideToMove()
+    {
+        return this.moves & 1;
+    }
+
+    @Override
+    public int getMoves()
+    {
+        return this.moves;
+    }
+
+    // unique, non-zero identifier of the position: the stones of the side to move plus the mask is enough to tell
+    // who owns what, and adding the bottom row keeps the empty board from being 0
+    long key()
+    {
+        return this.stones[this.moves & 1] + this.mask + BOTTOM_MASK;
+    }
+
+    // the smaller of key() and the key() of the mirror image: unique, but for a position and its mirror image
+    @Override
+    public long canonicalKey()
+    {
+        return Math.min(this.key(), this.mirrorKey());
+    }
+
+    @Override
+    public boolean isMirrored()
+    {
+        return this.mirrorKey() < this.key();
+    }
+
+    private long mirrorKey()
+    {
+        return this.mirrored[this.moves & 1] + this.mirrorMask + BOTTOM_MASK;
+    }
+
+    // where a column of the board is on its mirror image, and the other way round
+    static int mirror(int col)
+    {
+        return WIDTH - 1 - col;
+    }
+
+    @Override
+    public boolean isFull()
+    {
+        return this.moves == CELLS;
+    }
+
+    @Override
+    public boolean canPlay(int col)
+    {
+        return (this.mask & topMask(col)) == 0;
+    }
+
+    // number of tokens already in that column
+    @Override
+    public int height(int col)
+    {
+        return Long.bitCount(this.mask & columnMask(col));
+    }
+
+    // index of the player owning that cell, or -1 if it is empty
+    @Override
+    public int owner(int col, int row)
+    {
+        long cell = 1L << (col * H1 + row);
+        if ((this.stones[0] & cell) != 0)
+        {
+            return 0;
+        }
+        if ((this.stones[1] & cell) != 0)
+        {
+            return 1;
+        }
+        return -1;
+    }
+
+    @Override
+    public void play(int col)
+    {
+        long move   = (this.mask + bottomMask(col)) & columnMask(col);
+        long mirror = (this.mirrorMask + bottomMask(mirror(col))) & columnMask(mirror(col));
+        this.stones[this.moves & 1] |= move;
+        this.mirrored[this.moves & 1] |= mirror;
+        this.mask |= move;
+        this.mirrorMask |= mirror;
+        this.moves++;
+    }
+
+    // takes back the last move, which must have been played in col
+    @Override
+    public void undo(int col)
+    {
+        long move   = Long.highestOneBit(this.mask & columnMask(col));
+        long mirror = Long.highestOneBit(this.mirrorMask & columnMask(mirror(col)));
+        this.moves--;
+        this.stones[this.moves & 1] ^= move;
+        this.mirrored[this.moves & 1] ^= mirror;
+        this.mask ^= move;
+        this.mirrorMask ^= mirror;
+    }
+
+    @Override
+    public boolean isWinningMove(int col)
+    {
+        long move = (this.mask + bottomMask(col)) & columnMask(col);
+        return alignment(this.stones[this.moves & 1] | move);
+    }
+
+    // length of the longest line of the given player's tokens going through the cell a token dropped in col would fill
+    @Override
+    public int alignedIfPlayed(int col, int side)
+    {
+        long move = (this.mask + bottomMask(col)) & columnMask(col);
+        long own  = this.stones[side] | move;
+        int  max  = 0;
+        for (int dir : DIRECTIONS)
+        {
+            int  length = 1;
+            long cell   = move << dir;
+            while ((own & cell) != 0)
+            {
+                length++;
+                cell <<= dir;
+            }
+            cell = move >>> dir;
+            while ((own & cell) != 0)
+            {
+                length++;
+                cell >>>= dir;
+            }
+            max = Math.max(max, length);
+        }
+        return max;
+    }
+
+    // number of empty cells that would complete a line for the side to move, minus those of its opponent
+    int threatBalance()
+    {
+        long own   = this.stones[this.moves & 1];
+        long other = this.stones[(this.moves & 1) ^ 1];
+        return Long.bitCount(winningCells(own, this.mask)) - Long.bitCount(winningCells(other, this.mask));
+    }
+
+    // every empty cell (playable or not) that would give pos 4 aligned tokens
+    static long winningCells(long pos, long mask)
+    {
+        // vertical: only upwards makes sense
+        long r = (pos << 1) & (pos << 2) & (pos << 3);
+        for (int dir : SIDEWAYS)
+        {
+            long p = (pos << dir) & (pos << 2 * dir);
+            r |= p & (pos << 3 * dir);
+            r |= p & (pos >>> dir);
+            p = (pos >>> dir) & (pos >>> 2 * dir);
+            r |= p & (pos << dir);
+            r |= p & (pos >>> 3 * dir);
+        }
+        return r & (BOARD_MASK ^ mask);
+    }
+
+    // true if there are 4 aligned tokens in pos
+    static boolean alignment(long pos)
+    {
+        for (int dir : DIRECTIONS)
+        {
+            long m = pos & (pos >> dir);
+            if ((m & (m >> 2 * dir)) != 0)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long topMask(int col)
+    {
+        return (1L << (HEIGHT - 1)) << col * H1;
+    }
+
+    private static long bottomMask(int col)
+    {
+        return 1L << col * H1;
+    }
+
+    private static long columnMask(int col)
+    {
+        return ((1L << HEIGHT) - 1) << col * H1;
+    }
+
+    private static long bottomMask()
+    {
+        long mask = 0L;
+        for (int col = 0; col < WIDTH; col++)
+        {
+            mask |= bottomMask(col);
+        }
+        return mask;
+    }
+}
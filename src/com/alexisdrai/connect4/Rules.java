@@ -0,0 +1,95 @@
+package com.alexisdrai.connect4;
+
+import java.util.Objects;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// dimensions of the board, and how many tokens in a row win
+final class Rules
+{
+    static final int MAX_SIDE = 127; // columns are saved as bytes
+
+    static final Rules CLASSIC = new Rules(Position.WIDTH, Position.HEIGHT, 4);
+
+    private static final Pattern PATTERN = Pattern.compile("([1-9][0-9]{0,2})x([1-9][0-9]{0,2}):([1-9][0-9]{0,2})");
+
+    private final int width;
+    private final int height;
+    private final int connect;
+
+    Rules(int width, int height, int connect)
+    {
+        if (width < 1 || width > MAX_SIDE || height < 1 || height > MAX_SIDE
+            || connect < 2 || connect > Math.max(width, height))
+        {
+            throw new IllegalArgumentException(String.format("invalid rules: %d columns, %d rows, connect %d",
+                                                             width,
+                                                             height,
+                                                             connect));
+        }
+        this.width = width;
+        this.height = height;
+        this.connect = connect;
+    }
+
+    // "<columns>x<rows>:<connect>", e.g. "7x6:4" for the classic game, or "100x100:6"
+    static Rules parse(String rules)
+    {
+        Objects.requireNonNull(rules);
+        Matcher matcher = PATTERN.matcher(rules.trim());
+        if (!matcher.matches())
+        {
+            throw new IllegalArgumentException("rules should look like \"7x6:4\", got \"" + rules + "\"");
+        }
+        return new Rules(Integer.parseInt(matcher.group(1)),
+                         Integer.parseInt(matcher.group(2)),
+                         Integer.parseInt(matcher.group(3)));
+    }
+
+    int getWidth()
+    {
+        return this.width;
+    }
+
+    int getHeight()
+    {
+        return this.height;
+    }
+
+    int getConnect()
+    {
+        return this.connect;
+    }
+
+    int getCells()
+    {
+        return this.width * this.height;
+    }
+
+    // the classic game is the only one Position (and so searches, the opening book...) can represent
+    boolean isClassic()
+    {
+        return this.equals(CLASSIC);
+    }
+
+    @Override
+    public boolean equals(Object other)
+    {
+        return other instanceof Rules rules
+               && this.width == rules.width
+               && this.height == rules.height
+               && this.connect == rules.connect;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Objects.hash(this.width, this.height, this.connect);
+    }
+
+    @Override
+    public String toString()
+    {
+        return this.width + "x" + this.height + ":" + this.connect;
+    }
+}
@@ -0,0 +1,429 @@
+package com.alexisdrai.connect4;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/*
+ * iterative deepening negamax with alpha-beta pruning
+ *
+ * the search goes one move deeper at a time, up to its maximum depth, until it runs out of time or nodes:
+ * the column returned is the one picked by the last iteration that finished (the first one always does)
+ *
+ * scores are always from the point of view of the side to move:
+ * a win is worth WIN_SCORE plus the number of cells left empty (so that faster wins are preferred),
+ * a loss is the opposite, and unfinished lines are judged with ThreatTracker.evaluate(), or by an NTupleNetwork
+ * if the search was given one (see setNetwork())
+ *
+ * results are remembered in an optional TranspositionTable, which also suggests which column to try first
+ *
+ * an analysing search (see setAnalysing()) gives every column of the root a full window rather than only trying to
+ * beat the best one so far, which costs more but scores all of them exactly, e.g. for hints
+ */
+final class Search
+{
+    static final int WIN_SCORE = 100;
+
+    // exploring central columns first makes cutoffs happen much earlier
+    static final int[] COLUMN_ORDER = columnOrder();
+
+    static final long UNLIMITED = 0L;
+
+    private static final int INFINITY    = WIN_SCORE + Position.CELLS + 1;
+    // how many nodes go by between two looks at the clock
+    private static final int CLOCK_CHECK = 1023;
+
+    private final int                depth;
+    private final TranspositionTable table;
+    private final long               budgetNanos;
+    private final long               nodeBudget;
+    // the search's own copy of the root, played and undone in place: the caller's position is never touched
+    private final Position           position = new Position();
+    // kept in step with position, for immediate wins and the evaluation of leaves
+    private final ThreatTracker      threats  = new ThreatTracker();
+
+    // when evaluating with a network, its view of position, kept in step too
+    private NTupleNetwork          network;
+    private NTupleNetwork.Features features;
+
+    private int     firstDepth;
+    private long    nodes;
+    private long    tableProbes;
+    private long    tableHits;
+    private long    deadline;
+    private int     completedDepth;
+    private int     score;
+    private int     iterationScore;
+    private boolean aborted;
+    private boolean analysing;
+    private boolean aging;
+    private int[]   iterationScores;
+
+    // only ever replaced, so that another thread may read them while the search goes on
+    private volatile int[] columnScores;
+    private volatile int   analysedDepth;
+
+    // set from another thread, when this search is only helping a ParallelSearch
+    private volatile boolean stopped;
+
+    Search(int depth)
+    {
+        this(depth, null);
+    }
+
+    Search(int depth, TranspositionTable table)
+    {
+        this(depth, table, UNLIMITED, UNLIMITED);
+    }
+
+    // millis and nodeBudget bound each call to bestMove(), UNLIMITED meaning that only the depth does
+    Search(int depth, TranspositionTable table, long millis, long nodeBudget)
+    {
+        if (depth < 1)
+        {
+            throw new IllegalArgumentException("search depth must be at least 1, got " + depth);
+        }
+        if (millis < 0 || nodeBudget < 0)
+        {
+            throw new IllegalArgumentException("search budgets cannot be negative");
+        }
+        this.depth = depth;
+        this.table = table;
+        this.budgetNanos = millis * 1_000_000L;
+        this.nodeBudget = nodeBudget;
+        this.firstDepth = 1;
+        this.aging = true;
+    }
+
+    int getDepth()
+    {
+        return this.depth;
+    }
+
+    // number of positions visited by the last call to bestMove()
+    long getNodes()
+    {
+        return this.nodes;
+    }
+
+    // look-ups of the transposition table by the last call to bestMove(), and how many found their position
+    long getTableProbes()
+    {
+        return this.tableProbes;
+    }
+
+    long getTableHits()
+    {
+        return this.tableHits;
+    }
+
+    // deepest iteration the last call to bestMove() got to finish
+    int getCompletedDepth()
+    {
+        return this.completedDepth;
+    }
+
+    // score of the column returned by the last call to bestMove()
+    int getScore()
+    {
+        return this.score;
+    }
+
+    void setStopped(boolean stopped)
+    {
+        this.stopped = stopped;
+    }
+
+    // whether bestMove() starts a new search of the table (see TranspositionTable.newSearch()): only the search
+    // that owns the table should, not helpers or ponderers sharing it
+    void setAging(boolean aging)
+    {
+        this.aging = aging;
+    }
+
+    void setAnalysing(boolean analysing)
+    {
+        this.analysing = analysing;
+        this.iterationScores = analysing ? new int[Position.WIDTH] : null;
+    }
+
+    /*
+     * when analysing: the score of every column of the root (Integer.MIN_VALUE for full ones), as the deepest
+     * iteration finished so far saw them, or null before the first one, or after clearColumnScores().
+     * may be called from any thread
+     */
+    int[] getColumnScores()
+    {
+        int[] scores = this.columnScores;
+        return scores == null ? null : scores.clone();
+    }
+
+    // depth the column scores were searched to, 0 if there are none
+    int getAnalysedDepth()
+    {
+        return this.analysedDepth;
+    }
+
+    void clearColumnScores()
+    {
+        this.columnScores = null;
+        this.analysedDepth = 0;
+    }
+
+    // null to go back to ThreatTracker.evaluate(): only between two calls to bestMove()
+    void setNetwork(NTupleNetwork network)
+    {
+        this.network = network;
+        this.features = network == null ? null : network.newFeatures();
+    }
+
+    NTupleNetwork getNetwork()
+    {
+        return this.network;
+    }
+
+    // helpers of a ParallelSearch start at different depths, so that they do not all search the same tree in lockstep
+    void setFirstDepth(int firstDepth)
+    {
+        this.firstDepth = Math.max(1, firstDepth);
+    }
+
+    // -1 only if the search was stopped before its first iteration could finish
+    int bestMove(Position root)
+    {
+        Objects.requireNonNull(root);
+        if (root.isFull())
+        {
+            throw new IllegalStateException("no playable column left -- the game should already be over");
+        }
+        this.nodes = 0;
+        this.tableProbes = 0;
+        this.tableHits = 0;
+        this.completedDepth = 0;
+        this.aborted = false;
+        this.deadline = this.budgetNanos == UNLIMITED ? Long.MAX_VALUE : System.nanoTime() + this.budgetNanos;
+        if (this.table != null && this.aging)
+        {
+            this.table.newSearch();
+        }
+
+        this.position.copy(root);
+        this.threats.set(root);
+        if (this.features != null)
+        {
+            this.features.set(root);
+        }
+        int bestCol  = -1;
+        int maxDepth = Math.min(this.depth, Position.CELLS - root.getMoves());
+        for (int depth = this.firstDepth; depth <= maxDepth; depth++)
+        {
+            int col = this.searchRoot(depth);
+            if (this.aborted)
+            {
+                break;
+            }
+            bestCol = col;
+            this.score = this.iterationScore;
+            this.completedDepth = depth;
+            if (this.analysing)
+            {
+                this.columnScores = this.iterationScores.clone();
+                this.analysedDepth = depth;
+                continue; // other columns may still be worth looking deeper into
+            }
+            if (Math.abs(this.score) > WIN_SCORE)
+            {
+                break; // the outcome is known, looking deeper would not change it
+            }
+        }
+        return bestCol;
+    }
+
+    private int searchRoot(int depth)
+    {
+        Position root    = this.position;
+        int      bestCol = -1;
+        int      alpha   = -INFINITY;
+        if (this.analysing)
+        {
+            Arrays.fill(this.iterationScores, Integer.MIN_VALUE);
+        }
+        for (int col : COLUMN_ORDER)
+        {
+            if (!root.canPlay(col))
+            {
+                continue;
+            }
+            int score;
+            if (root.isWinningMove(col))
+            {
+                score = WIN_SCORE + Position.CELLS - root.getMoves();
+                if (!this.analysing)
+                {
+                    this.iterationScore = score;
+                    return col;
+                }
+            }
+            else
+            {
+                this.play(col);
+                score = -this.negamax(depth - 1, -INFINITY, this.analysing ? INFINITY : -alpha);
+                this.undo(col);
+            }
+            if (this.analysing)
+            {
+                this.iterationScores[col] = score;
+            }
+            if (bestCol < 0 || score > alpha)
+            {
+                bestCol = col;
+                alpha = score;
+            }
+        }
+        this.iterationScore = alpha;
+        return bestCol;
+    }
+
+    // budgets only kick in once a first iteration has finished, so that there always is a column to fall back on
+    private boolean outOfBudget()
+    {
+        if (this.stopped)
+        {
+            this.aborted = true;
+        }
+        else if (this.completedDepth > 0
+            && ((this.nodeBudget != UNLIMITED && this.nodes > this.nodeBudget)
+                || ((this.nodes & CLOCK_CHECK) == 0 && System.nanoTime() > this.deadline)))
+        {
+            this.aborted = true;
+        }
+        return this.aborted;
+    }
+
+    // scores this.position, which it leaves as it found it
+    private int negamax(int depth, int alpha, int beta)
+    {
+        Position position = this.position;
+        this.nodes++;
+
+        if (this.outOfBudget())
+        {
+            return 0; // whatever this returns is thrown away along with the rest of the iteration
+        }
+        if (position.isFull())
+        {
+            return 0;
+        }
+        if (this.threats.immediateWins(position.getSideToMove()) != 0)
+        {
+            return WIN_SCORE + Position.CELLS - position.getMoves();
+        }
+        if (depth <= 0)
+        {
+            return this.features != null ? this.features.evaluate() : this.threats.evaluate();
+        }
+
+        // mirror images share their entries, columns being stored as played on the one the key belongs to
+        long    key      = position.canonicalKey();
+        boolean mirrored = position.isMirrored();
+        int     ttMove   = -1;
+        if (this.table != null)
+        {
+            long data = this.table.probe(key);
+            this.tableProbes++;
+            if (data != TranspositionTable.MISS)
+            {
+                this.tableHits++;
+                ttMove = TranspositionTable.move(data);
+                if (mirrored && ttMove >= 0)
+                {
+                    ttMove = Position.mirror(ttMove);
+                }
+                if (TranspositionTable.depth(data) >= depth)
+                {
+                    int score = TranspositionTable.score(data);
+                    switch (TranspositionTable.flag(data))
+                    {
+                        case (TranspositionTable.EXACT) -> {
+                            return score;
+                        }
+                        case (TranspositionTable.LOWER) -> alpha = Math.max(alpha, score);
+                        case (TranspositionTable.UPPER) -> beta = Math.min(beta, score);
+                    }
+                    if (alpha >= beta)
+                    {
+                        return score;
+                    }
+                }
+            }
+        }
+
+        int originalAlpha = alpha;
+        int best          = -INFINITY;
+        int bestCol       = -1;
+        // the table's suggestion goes first, then the usual center-first order
+        for (int i = -1; i < Position.WIDTH; i++)
+        {
+            int col = i < 0 ? ttMove : COLUMN_ORDER[i];
+            if (col < 0 || (i >= 0 && col == ttMove) || !position.canPlay(col))
+            {
+                continue;
+            }
+            this.play(col);
+            int score = -this.negamax(depth - 1, -beta, -alpha);
+            this.undo(col);
+            if (score > best)
+            {
+                best = score;
+                bestCol = col;
+            }
+            if (score > alpha)
+            {
+                alpha = score;
+            }
+            if (alpha >= beta)
+            {
+                break;
+            }
+        }
+
+        if (this.table != null && !this.aborted)
+        {
+            int flag = best <= originalAlpha ? TranspositionTable.UPPER
+                       : best >= beta ? TranspositionTable.LOWER
+                       : TranspositionTable.EXACT;
+            this.table.store(key, depth, best, flag, mirrored && bestCol >= 0 ? Position.mirror(bestCol) : bestCol);
+        }
+        return best;
+    }
+
+    private void play(int col)
+    {
+        this.position.play(col);
+        this.threats.play(col);
+        if (this.features != null)
+        {
+            this.features.play(col);
+        }
+    }
+
+    private void undo(int col)
+    {
+        this.position.undo(col);
+        this.threats.undo(col);
+        if (this.features != null)
+        {
+            this.features.undo(col);
+        }
+    }
+
+    private static int[] columnOrder()
+    {
+        int[] order = new int[Position.WIDTH];
+        for (int i = 0; i < Position.WIDTH; i++)
+        {
+            // 3, 2, 4, 1, 5, 0, 6 on a 7-column board
+            order[i] = Position.WIDTH / 2 + (1 - 2 * (i % 2)) * (i + 1) / 2;
+        }
+        return order;
+    }
+}
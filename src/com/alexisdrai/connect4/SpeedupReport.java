@@ -0,0 +1,55 @@
+package com.alexisdrai.connect4;
+
+/*
+ * measures how much faster ParallelSearch gets to a given depth with more threads
+ *
+ * usage: java -cp build com.alexisdrai.connect4.SpeedupReport [max threads] [depth]
+ */
+public class SpeedupReport
+{
+    private static final String[] POSITIONS = {
+            "",                             // empty board
+            "43443",                        // early game
+            "2224441366",                   // middle game
+            "1233722555341",                // middle game
+            "3642756176227637211322113551", // end game
+    };
+
+    private static final int TABLE_MEGABYTES = 64;
+
+    public static void main(String[] args)
+    {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        int depth      = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+
+        System.out.printf("%-40s %7s %10s %12s %8s%n", "position", "threads", "millis", "nodes", "speedup");
+        for (String moves : POSITIONS)
+        {
+            double singleThreadMillis = 0;
+            for (int threads = 1; threads <= maxThreads; threads *= 2)
+            {
+                // a fresh table each time, so that no run benefits from the previous one
+                ParallelSearch search = new ParallelSearch(depth,
+                                                           new TranspositionTable(TABLE_MEGABYTES),
+                                                           Search.UNLIMITED,
+                                                           Search.UNLIMITED,
+                                                           threads);
+                long start = System.nanoTime();
+                search.bestMove(Position.of(moves));
+                double millis = (System.nanoTime() - start) / 1e6;
+                search.shutdown();
+
+                if (threads == 1)
+                {
+                    singleThreadMillis = millis;
+                }
+                System.out.printf("%-40s %7d %10.1f %12d %7.2fx%n",
+                                  moves.isEmpty() ? "(empty)" : moves,
+                                  threads,
+                                  millis,
+                                  search.getNodes(),
+                                  singleThreadMillis / millis);
+            }
+        }
+    }
+}
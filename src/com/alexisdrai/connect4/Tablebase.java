@@ -0,0 +1,170 @@
+package com.alexisdrai.connect4;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+
+/*
+ * read-only view of a tablebase file written by TablebaseGenerator: solved positions with few empty cells left
+ *
+ * like OpeningBook, the file is memory-mapped and never parsed. entries are sorted by key and packed in blocks,
+ * where keys are stored as the difference with the previous one, so that a look-up is a binary search over
+ * the first keys of the blocks, then a walk through a single block.
+ *
+ * layout (big endian):
+ *  header: MAGIC (int), VERSION (int), most empty cells of a position (int), entry count (long), block count (int)
+ *  block index: for each block, the key of its first entry (long) and the offset of the block in the data (int)
+ *  data: up to BLOCK entries per block, each one being
+ *      the key minus the previous one in the block (varint: 7 bits per byte, lowest first), 0 for the first,
+ *      keys being Position.canonicalKey() (Position.key() in version 1 tablebases)
+ *      best column (byte), on the mirror image if the key is that of the mirror image
+ *      result (byte): 0 for a draw, else the score minus WIN_SCORE for a win, or plus WIN_SCORE for a loss
+ */
+final class Tablebase
+{
+    static final int MAGIC        = 0x43345442; // "C4TB"
+    static final int VERSION      = 2;
+    static final int HEADER_BYTES = 3 * Integer.BYTES + Long.BYTES + Integer.BYTES;
+    static final int INDEX_BYTES  = Long.BYTES + Integer.BYTES;
+    static final int BLOCK        = 64;
+
+    private final int        maxEmpty;
+    private final long       size;
+    private final int        blocks;
+    private final ByteBuffer index;
+    private final ByteBuffer data;
+    // whether positions and their mirror images share entries, which only version 1 tablebases do not
+    private final boolean    canonical;
+
+    private Tablebase(int maxEmpty, long size, int blocks, ByteBuffer index, ByteBuffer data, boolean canonical)
+    {
+        this.maxEmpty = maxEmpty;
+        this.size = size;
+        this.blocks = blocks;
+        this.index = index;
+        this.data = data;
+        this.canonical = canonical;
+    }
+
+    static Tablebase open(Path path) throws IOException
+    {
+        Objects.requireNonNull(path);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+        {
+            // the mapping stays valid after the channel is closed
+            ByteBuffer buffer  = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            int        version = buffer.remaining() < HEADER_BYTES || buffer.getInt() != MAGIC ? 0 : buffer.getInt();
+            if (version < 1 || version > VERSION)
+            {
+                throw new IOException(path + " is not a version 1 to " + VERSION + " tablebase");
+            }
+            int  maxEmpty = buffer.getInt();
+            long size     = buffer.getLong();
+            int  blocks   = buffer.getInt();
+            if (blocks < 0 || blocks != (size + BLOCK - 1) / BLOCK || (long) blocks * INDEX_BYTES > buffer.remaining())
+            {
+                throw new IOException(path + " is truncated: expected " + size + " entries");
+            }
+            ByteBuffer index = buffer.slice(buffer.position(), blocks * INDEX_BYTES);
+            ByteBuffer data  = buffer.slice(buffer.position() + blocks * INDEX_BYTES,
+                                            buffer.remaining() - blocks * INDEX_BYTES);
+            return new Tablebase(maxEmpty, size, blocks, index, data, version >= 2);
+        }
+    }
+
+    long size()
+    {
+        return this.size;
+    }
+
+    // positions with more empty cells than that are never in the tablebase
+    int getMaxEmpty()
+    {
+        return this.maxEmpty;
+    }
+
+    // best column for that position, or -1 if the tablebase does not know it
+    int bestMove(Position position)
+    {
+        int found = this.find(position);
+        if (found < 0)
+        {
+            return -1;
+        }
+        int move = found >>> Byte.SIZE;
+        return this.canonical && position.isMirrored() ? Position.mirror(move) : move;
+    }
+
+    // exact score of the best column for that position, or Integer.MIN_VALUE if the tablebase does not know it
+    int score(Position position)
+    {
+        int found = this.find(position);
+        return found < 0 ? Integer.MIN_VALUE : score((byte) found);
+    }
+
+    // the column and result of that position's entry, as ((column << 8) | result byte), or -1
+    private int find(Position position)
+    {
+        if (Position.CELLS - position.getMoves() > this.maxEmpty || this.blocks == 0)
+        {
+            return -1;
+        }
+        long key = this.canonical ? position.canonicalKey() : position.key();
+
+        // last block starting at or before key
+        int low  = 0;
+        int high = this.blocks - 1;
+        while (low < high)
+        {
+            int mid = (low + high + 1) >>> 1;
+            if (this.index.getLong(mid * INDEX_BYTES) <= key)
+            {
+                low = mid;
+            }
+            else
+            {
+                high = mid - 1;
+            }
+        }
+        long entryKey = this.index.getLong(low * INDEX_BYTES);
+        if (entryKey > key)
+        {
+            return -1;
+        }
+        int  offset  = this.index.getInt(low * INDEX_BYTES + Long.BYTES);
+        long entries = Math.min(BLOCK, this.size - (long) low * BLOCK);
+        for (int i = 0; i < entries && entryKey <= key; i++)
+        {
+            long delta = 0;
+            int  shift = 0;
+            byte b;
+            do
+            {
+                b = this.data.get(offset++);
+                delta |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            entryKey += delta;
+            if (entryKey == key)
+            {
+                return (this.data.get(offset) & 0xFF) << Byte.SIZE | this.data.get(offset + 1) & 0xFF;
+            }
+            offset += 2;
+        }
+        return -1;
+    }
+
+    // what a score is stored as: it fits a byte, since a win or a loss is within Position.CELLS of WIN_SCORE
+    static byte result(int score)
+    {
+        return (byte) (score == 0 ? 0 : score > 0 ? score - Search.WIN_SCORE : score + Search.WIN_SCORE);
+    }
+
+    static int score(byte result)
+    {
+        return result == 0 ? 0 : result > 0 ? result + Search.WIN_SCORE : result - Search.WIN_SCORE;
+    }
+}
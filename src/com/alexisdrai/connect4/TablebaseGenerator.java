@@ -0,0 +1,179 @@
+package com.alexisdrai.connect4;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Random;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/*
+ * writes a Tablebase of solved positions with at most a given number of empty cells
+ * (only once for a position and its mirror image)
+ *
+ * there are far too many of those to list them all, so they are sampled from games: a few random moves, then moves
+ * chosen by a shallow search (with a random one now and then) until few enough cells are left, then perfect play.
+ * from there on, every position of the game is solved, and so is every position one move away from it,
+ * since that is where a player who does not play perfectly leads. positions missing from the tablebase
+ * are still solved exactly by the bots: they only take longer
+ *
+ * usage: java -cp build com.alexisdrai.connect4.TablebaseGenerator [file] [games] [empty cells] [seed]
+ */
+public class TablebaseGenerator
+{
+    private static final int TABLE_MEGABYTES = 256;
+    private static final int SEARCH_DEPTH    = 8;
+    private static final int RANDOM_MOVES    = 4;
+    private static final int RANDOM_ODDS     = 8; // one move in RANDOM_ODDS is random, the others are searched
+
+    public static void main(String[] args) throws IOException
+    {
+        Path path     = args.length > 0 ? Paths.get(args[0]) : C4Game.TABLEBASE_PATH;
+        int  games    = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int  maxEmpty = args.length > 2 ? Integer.parseInt(args[2]) : C4Game.DEFAULT_ENDGAME_CELLS;
+        long seed     = args.length > 3 ? Long.parseLong(args[3]) : 0L;
+        if (maxEmpty < 1 || maxEmpty > Position.CELLS)
+        {
+            throw new IllegalArgumentException("empty cells should be between 1 and " + Position.CELLS);
+        }
+
+        long               startTime = System.nanoTime();
+        TranspositionTable table     = new TranspositionTable(TABLE_MEGABYTES);
+        Search             search    = new Search(SEARCH_DEPTH, table);
+        EndgameSolver      solver    = new EndgameSolver(table);
+        Random             random    = new Random(seed);
+
+        // sorted by key, which is the order the tablebase is searched in; values are (column << 8) | result
+        SortedMap<Long, Integer> entries = new TreeMap<>();
+        for (int i = 0; i < games; i++)
+        {
+            playGame(maxEmpty, search, solver, random, entries);
+        }
+        write(path, maxEmpty, entries);
+
+        System.out.printf("%d positions (with up to %d empty cells, from %d games) written to %s in %.1fs%n",
+                          entries.size(),
+                          maxEmpty,
+                          games,
+                          path,
+                          (System.nanoTime() - startTime) / 1e9);
+    }
+
+    private static void playGame(int maxEmpty,
+                                 Search search,
+                                 EndgameSolver solver,
+                                 Random random,
+                                 SortedMap<Long, Integer> entries)
+    {
+        Position position = new Position();
+        while (!position.isFull())
+        {
+            int col;
+            if (Position.CELLS - position.getMoves() <= maxEmpty)
+            {
+                col = solve(position, solver, entries);
+                for (int other = 0; other < Position.WIDTH; other++)
+                {
+                    if (other != col && position.canPlay(other) && !position.isWinningMove(other))
+                    {
+                        Position child = new Position(position);
+                        child.play(other);
+                        if (!child.isFull())
+                        {
+                            solve(child, solver, entries);
+                        }
+                    }
+                }
+            }
+            else if (position.getMoves() < RANDOM_MOVES || random.nextInt(RANDOM_ODDS) == 0)
+            {
+                do
+                {
+                    col = random.nextInt(Position.WIDTH);
+                } while (!position.canPlay(col));
+            }
+            else
+            {
+                col = search.bestMove(position);
+            }
+            if (position.isWinningMove(col))
+            {
+                return;
+            }
+            position.play(col);
+        }
+    }
+
+    // best column of that position, which is now in entries
+    private static int solve(Position position, EndgameSolver solver, SortedMap<Long, Integer> entries)
+    {
+        long    key   = position.canonicalKey();
+        Integer known = entries.get(key);
+        if (known != null)
+        {
+            int col = known >>> Byte.SIZE;
+            return position.isMirrored() ? Position.mirror(col) : col;
+        }
+        int col    = solver.bestMove(position);
+        int stored = position.isMirrored() ? Position.mirror(col) : col;
+        entries.put(key, stored << Byte.SIZE | Tablebase.result(solver.getScore()) & 0xFF);
+        return col;
+    }
+
+    private static void write(Path path, int maxEmpty, SortedMap<Long, Integer> entries) throws IOException
+    {
+        int                   blocks = (entries.size() + Tablebase.BLOCK - 1) / Tablebase.BLOCK;
+        ByteBuffer            index  = ByteBuffer.allocate(blocks * Tablebase.INDEX_BYTES);
+        ByteArrayOutputStream bytes  = new ByteArrayOutputStream();
+        DataOutputStream      data   = new DataOutputStream(bytes);
+        long                  last   = 0;
+        int                   count  = 0;
+        for (Map.Entry<Long, Integer> entry : entries.entrySet())
+        {
+            long key = entry.getKey();
+            if (count++ % Tablebase.BLOCK == 0)
+            {
+                index.putLong(key);
+                index.putInt(data.size());
+                last = key;
+            }
+            long delta = key - last;
+            while (delta >= 0x80)
+            {
+                data.writeByte((int) (delta & 0x7F) | 0x80);
+                delta >>>= 7;
+            }
+            data.writeByte((int) delta);
+            data.writeShort(entry.getValue());
+            last = key;
+        }
+        index.flip();
+
+        ByteBuffer header = ByteBuffer.allocate(Tablebase.HEADER_BYTES);
+        header.putInt(Tablebase.MAGIC);
+        header.putInt(Tablebase.VERSION);
+        header.putInt(maxEmpty);
+        header.putLong(entries.size());
+        header.putInt(blocks);
+        header.flip();
+
+        ByteBuffer body = ByteBuffer.wrap(bytes.toByteArray());
+        try (FileChannel channel = FileChannel.open(path,
+                                                    StandardOpenOption.CREATE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING,
+                                                    StandardOpenOption.WRITE))
+        {
+            ByteBuffer[] buffers = {header, index, body};
+            while (header.hasRemaining() || index.hasRemaining() || body.hasRemaining())
+            {
+                channel.write(buffers);
+            }
+        }
+    }
+}
@@ -0,0 +1,323 @@
+package com.alexisdrai.connect4;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/*
+ * keeps count of every player's tokens in each of the LINES lines of 4 cells a game can be won with,
+ * updating only the (at most 13) lines through a cell when a token is played there or taken back
+ *
+ * a line is "open" for a player while the other has no token in it. an open line holding 3 tokens is a threat,
+ * and its empty cell a threat cell; a threat cell the next token would land on is an immediate win.
+ * cells use Position's bit layout (bit col * (HEIGHT + 1) + row, row 0 at the bottom), so that threat cells
+ * fit in a long and every query is a few bitwise operations
+ *
+ * parity: the player who moved first can count on getting the cells of odd rows (1st, 3rd... from the bottom)
+ * once the board fills up, and the other player those of even rows, so that threats on "their" rows are the ones
+ * that end up winning
+ */
+final class ThreatTracker
+{
+    private static final int  H1        = Position.HEIGHT + 1;
+    private static final int  BITS      = Position.WIDTH * H1;
+    private static final long ODD_ROWS  = rowsMask(0);
+    private static final long EVEN_ROWS = rowsMask(1);
+
+    // bits of the 4 cells of each line
+    private static final long[]  LINE_MASKS = lineMasks();
+    static final int             LINES      = LINE_MASKS.length;
+    // indices of the lines through each cell
+    private static final int[][] LINES_THROUGH = linesThrough();
+
+    // evaluation weights: a threat outweighs any number of open twos the board can hold
+    private static final int THREAT_WEIGHT = 8;
+    private static final int PARITY_WEIGHT = 4;
+    private static final int TWO_WEIGHT    = 1;
+    private static final int MAX_EVAL      = Search.WIN_SCORE - 1;
+
+    private final byte[][] counts       = new byte[2][LINES];
+    // how many threats each cell is the threat cell of
+    private final byte[][] threatCounts = new byte[2][BITS];
+    private final long[]   threatCells  = new long[2];
+    // open[side][k]: open lines holding k (from 1 to 4) of side's tokens
+    private final int[][]  open         = new int[2][5];
+    private final int[]    heights      = new int[Position.WIDTH];
+
+    private long mask;
+    private long playable;
+    private int  moves;
+
+    ThreatTracker()
+    {
+        this.clear();
+    }
+
+    // starts over from that position, without allocating anything
+    void set(Position position)
+    {
+        Objects.requireNonNull(position);
+        this.clear();
+        for (int col = 0; col < Position.WIDTH; col++)
+        {
+            int height = position.height(col);
+            for (int row = 0; row < height; row++)
+            {
+                this.add(position.owner(col, row), col * H1 + row);
+            }
+            this.heights[col] = height;
+            this.playable &= ~(1L << col * H1);
+            if (height < Position.HEIGHT)
+            {
+                this.playable |= 1L << (col * H1 + height);
+            }
+        }
+        this.moves = position.getMoves();
+    }
+
+    void play(int col)
+    {
+        int bit = col * H1 + this.heights[col];
+        this.add(this.moves & 1, bit);
+        this.heights[col]++;
+        this.moves++;
+        this.playable ^= 1L << bit;
+        if (this.heights[col] < Position.HEIGHT)
+        {
+            this.playable |= 1L << (bit + 1);
+        }
+    }
+
+    // takes back the last move, which must have been played in col
+    void undo(int col)
+    {
+        this.moves--;
+        this.heights[col]--;
+        int bit = col * H1 + this.heights[col];
+        this.playable &= ~(1L << (bit + 1));
+        this.playable |= 1L << bit;
+        this.remove(this.moves & 1, bit);
+    }
+
+    // index (in C4Game.players) of the player whose turn it is
+    int getSideToMove()
+    {
+        return this.moves & 1;
+    }
+
+    // cells (in Position's layout) side could win on right now, by playing there
+    long immediateWins(int side)
+    {
+        return this.threatCells[side] & this.playable;
+    }
+
+    // column of a cell
+    static int column(long cell)
+    {
+        return Long.numberOfTrailingZeros(cell) / H1;
+    }
+
+    // cells that would complete a line for side, playable or not
+    long threatCells(int side)
+    {
+        return this.threatCells[side];
+    }
+
+    // number of open lines holding exactly 3 of side's tokens
+    int openThrees(int side)
+    {
+        return this.open[side][3];
+    }
+
+    // number of open lines holding exactly 2 of side's tokens
+    int openTwos(int side)
+    {
+        return this.open[side][2];
+    }
+
+    // threat cells of side on the rows parity hands to that side
+    int goodParityThreats(int side)
+    {
+        return Long.bitCount(this.threatCells[side] & (side == 0 ? ODD_ROWS : EVEN_ROWS));
+    }
+
+    // score of the position for the side to move, strictly between the scores of a loss and a win
+    int evaluate()
+    {
+        int side  = this.moves & 1;
+        int score = this.evaluate(side) - this.evaluate(side ^ 1);
+        return Math.max(-MAX_EVAL, Math.min(MAX_EVAL, score));
+    }
+
+    private int evaluate(int side)
+    {
+        return THREAT_WEIGHT * Long.bitCount(this.threatCells[side])
+               + PARITY_WEIGHT * this.goodParityThreats(side)
+               + TWO_WEIGHT * this.open[side][2];
+    }
+
+    private void clear()
+    {
+        for (int side = 0; side < 2; side++)
+        {
+            Arrays.fill(this.counts[side], (byte) 0);
+            Arrays.fill(this.threatCounts[side], (byte) 0);
+            Arrays.fill(this.open[side], 0);
+            this.threatCells[side] = 0L;
+        }
+        Arrays.fill(this.heights, 0);
+        this.mask = 0L;
+        this.playable = 0L;
+        for (int col = 0; col < Position.WIDTH; col++)
+        {
+            this.playable |= 1L << col * H1;
+        }
+        this.moves = 0;
+    }
+
+    private void add(int side, int bit)
+    {
+        int other = side ^ 1;
+        this.mask |= 1L << bit;
+        for (int line : LINES_THROUGH[bit])
+        {
+            int own    = this.counts[side][line]++;
+            int theirs = this.counts[other][line];
+            if (theirs == 0)
+            {
+                if (own > 0)
+                {
+                    this.open[side][own]--;
+                }
+                this.open[side][own + 1]++;
+                if (own == 2)
+                {
+                    this.threat(side, Long.numberOfTrailingZeros(LINE_MASKS[line] & ~this.mask), 1);
+                }
+                else if (own == 3)
+                {
+                    this.threat(side, bit, -1); // completed
+                }
+            }
+            else if (own == 0)
+            {
+                // the line was open for the other player only, and no longer is
+                this.open[other][theirs]--;
+                if (theirs == 3)
+                {
+                    this.threat(other, bit, -1);
+                }
+            }
+        }
+    }
+
+    private void remove(int side, int bit)
+    {
+        int other = side ^ 1;
+        for (int line : LINES_THROUGH[bit])
+        {
+            int own    = --this.counts[side][line];
+            int theirs = this.counts[other][line];
+            if (theirs == 0)
+            {
+                this.open[side][own + 1]--;
+                if (own > 0)
+                {
+                    this.open[side][own]++;
+                }
+                if (own == 2)
+                {
+                    this.threat(side, Long.numberOfTrailingZeros(LINE_MASKS[line] & ~this.mask), -1);
+                }
+                else if (own == 3)
+                {
+                    this.threat(side, bit, 1); // no longer completed
+                }
+            }
+            else if (own == 0)
+            {
+                // the line opens up again for the other player
+                this.open[other][theirs]++;
+                if (theirs == 3)
+                {
+                    this.threat(other, bit, 1);
+                }
+            }
+        }
+        this.mask &= ~(1L << bit);
+    }
+
+    private void threat(int side, int bit, int delta)
+    {
+        this.threatCounts[side][bit] += delta;
+        if (this.threatCounts[side][bit] == 0)
+        {
+            this.threatCells[side] &= ~(1L << bit);
+        }
+        else
+        {
+            this.threatCells[side] |= 1L << bit;
+        }
+    }
+
+    private static long rowsMask(int firstRow)
+    {
+        long rows = 0L;
+        for (int col = 0; col < Position.WIDTH; col++)
+        {
+            for (int row = firstRow; row < Position.HEIGHT; row += 2)
+            {
+                rows |= 1L << (col * H1 + row);
+            }
+        }
+        return rows;
+    }
+
+    private static long[] lineMasks()
+    {
+        // '|', '-', '/' and '\' respectively, as (column, row) steps
+        int[][] directions = {{0, 1}, {1, 0}, {1, 1}, {1, -1}};
+        long[]  lines      = new long[Position.WIDTH * Position.HEIGHT * directions.length];
+        int     count      = 0;
+        for (int col = 0; col < Position.WIDTH; col++)
+        {
+            for (int row = 0; row < Position.HEIGHT; row++)
+            {
+                for (int[] dir : directions)
+                {
+                    int lastCol = col + 3 * dir[0];
+                    int lastRow = row + 3 * dir[1];
+                    if (lastCol >= Position.WIDTH || lastRow < 0 || lastRow >= Position.HEIGHT)
+                    {
+                        continue;
+                    }
+                    long line = 0L;
+                    for (int i = 0; i < 4; i++)
+                    {
+                        line |= 1L << ((col + i * dir[0]) * H1 + row + i * dir[1]);
+                    }
+                    lines[count++] = line;
+                }
+            }
+        }
+        return Arrays.copyOf(lines, count);
+    }
+
+    private static int[][] linesThrough()
+    {
+        int[][] through = new int[BITS][];
+        for (int bit = 0; bit < BITS; bit++)
+        {
+            int[] lines = new int[LINE_MASKS.length];
+            int   count = 0;
+            for (int line = 0; line < LINE_MASKS.length; line++)
+            {
+                if ((LINE_MASKS[line] & 1L << bit) != 0)
+                {
+                    lines[count++] = line;
+                }
+            }
+            through[bit] = Arrays.copyOf(lines, count);
+        }
+        return through;
+    }
+}
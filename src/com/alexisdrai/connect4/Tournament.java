@@ -0,0 +1,322 @@
+package com.alexisdrai.connect4;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.alexisdrai.connect4.C4Game.PlayerSpec;
+
+/*
+ * plays bot A against bot B over and over, on a fixed number of threads, taking turns at going first
+ *
+ * each game opens with a few random moves so that games differ, drawn from a random generator seeded with the
+ * tournament's seed plus the game's number, which also seeds the bots' own tie breaks: a given game plays out the same
+ * whichever thread plays it (as long as the bots are bound by depth rather than time).
+ *
+ * every game is written to the CSV file as soon as it ends, and to a GameArchive too if one is given,
+ * and a summary goes to a JSON file next to the CSV one. a game that crashes is written as won by "error"
+ * and counted as failed, and the others go on
+ *
+ * usage: java -cp build com.alexisdrai.connect4.Tournament
+ *            <games> <threads> <bot A> <bot B> [csv file] [seed] [random moves] [rules] [archive file]
+ * (rules as in Rules.parse(), e.g. "9x7:5": bots only search the classic game, and play one move ahead otherwise)
+ * e.g.   java -cp build com.alexisdrai.connect4.Tournament 1000 8 "bot 6" "bot 1" results.csv 42 2 7x6:4 games.c4a
+ */
+public class Tournament
+{
+    private static final int TABLE_MEGABYTES = 8;
+
+    private final PlayerSpec botA;
+    private final PlayerSpec botB;
+    private final int        games;
+    private final int        threads;
+    private final long       seed;
+    private final int        randomMoves;
+    private final Rules      rules;
+
+    private final AtomicInteger    nextGame   = new AtomicInteger();
+    private final AtomicInteger    winsA      = new AtomicInteger();
+    private final AtomicInteger    winsB      = new AtomicInteger();
+    private final AtomicInteger    draws      = new AtomicInteger();
+    private final AtomicInteger    failures   = new AtomicInteger();
+    private final AtomicLong       totalMoves = new AtomicLong();
+    private final LatencyHistogram latencies  = new LatencyHistogram();
+
+    Tournament(PlayerSpec botA,
+               PlayerSpec botB,
+               int games,
+               int threads,
+               long seed,
+               int randomMoves,
+               Rules rules)
+    {
+        this.botA = Objects.requireNonNull(botA);
+        this.botB = Objects.requireNonNull(botB);
+        if (!botA.isBot() || !botB.isBot())
+        {
+            throw new IllegalArgumentException("only bots can play in a tournament");
+        }
+        if (games < 0 || threads < 1 || randomMoves < 0)
+        {
+            throw new IllegalArgumentException(String.format("invalid tournament: %d games, %d threads, %d random moves",
+                                                             games,
+                                                             threads,
+                                                             randomMoves));
+        }
+        this.games = games;
+        this.threads = threads;
+        this.seed = seed;
+        this.randomMoves = randomMoves;
+        this.rules = Objects.requireNonNull(rules);
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException
+    {
+        if (args.length < 4)
+        {
+            System.out.println("usage: Tournament <games> <threads> <bot A> <bot B> " +
+                               "[csv file] [seed] [random moves] [rules] [archive file]");
+            return;
+        }
+        Path csv = args.length > 4 ? Paths.get(args[4]) : Paths.get(".").resolve("tournament.csv");
+        Tournament tournament = new Tournament(PlayerSpec.parse(args[2]),
+                                               PlayerSpec.parse(args[3]),
+                                               Integer.parseInt(args[0]),
+                                               Integer.parseInt(args[1]),
+                                               args.length > 5 ? Long.parseLong(args[5]) : 0L,
+                                               args.length > 6 ? Integer.parseInt(args[6]) : 2,
+                                               args.length > 7 ? Rules.parse(args[7]) : Rules.CLASSIC);
+
+        long start = System.nanoTime();
+        try (BufferedWriter writer = Files.newBufferedWriter(csv);
+             GameArchive archive = args.length > 8 ? GameArchive.open(Paths.get(args[8])) : null)
+        {
+            tournament.run(writer, archive);
+        }
+        String summary = tournament.summary((System.nanoTime() - start) / 1e9);
+
+        Path json = csv.resolveSibling(csv.getFileName().toString().replaceFirst("(\\.csv)?$", ".json"));
+        Files.writeString(json, summary);
+        System.out.println(summary);
+    }
+
+    // archive may be null, for games to go to the CSV file only
+    void run(Writer csv, GameArchive archive) throws IOException, InterruptedException
+    {
+        if (archive != null && !GameArchive.fits(this.rules))
+        {
+            throw new IllegalArgumentException("games of " + this.rules + " do not fit a game archive");
+        }
+        csv.write("game,first,winner,moves,millis\n");
+
+        // each worker picks the next game to play until there are none left, so nothing is queued up front
+        ExecutorService pool    = Executors.newFixedThreadPool(this.threads);
+        Future<?>[]     workers = new Future<?>[this.threads];
+        for (int i = 0; i < this.threads; i++)
+        {
+            workers[i] = pool.submit(() -> {
+                // the worker's bots, A's and B's with A going first, then with B going first, kept from game to game
+                C4Game[] games = new C4Game[2];
+                try
+                {
+                    int game;
+                    while ((game = this.nextGame.getAndIncrement()) < this.games)
+                    {
+                        String line;
+                        try
+                        {
+                            line = this.play(game, archive, games);
+                        } catch (RuntimeException e)
+                        {
+                            line = this.failed(game, e);
+                            shutdown(games); // whatever state the bots were left in, the next games get new ones
+                        }
+                        try
+                        {
+                            synchronized (csv)
+                            {
+                                csv.write(line);
+                            }
+                        } catch (IOException e)
+                        {
+                            throw new UncheckedIOException(e);
+                        }
+                    }
+                } finally
+                {
+                    shutdown(games);
+                }
+            });
+        }
+        pool.shutdown();
+        try
+        {
+            for (Future<?> worker : workers)
+            {
+                worker.get();
+            }
+        } catch (ExecutionException e)
+        {
+            // a worker only stops early when the CSV file cannot be written, or on an Error: no point going on
+            pool.shutdownNow();
+            if (e.getCause() instanceof UncheckedIOException cause)
+            {
+                throw cause.getCause();
+            }
+            throw new IllegalStateException("a tournament worker crashed", e.getCause());
+        }
+    }
+
+    // one CSV line for a game that crashed, whose bots' moves so far are lost
+    private String failed(int gameIdx, RuntimeException e)
+    {
+        this.failures.incrementAndGet();
+        System.err.println("game " + gameIdx + " failed: " + e);
+        return String.format(Locale.ROOT, "%d,%s,error,,\n", gameIdx, gameIdx % 2 == 0 ? "A" : "B");
+    }
+
+    private static void shutdown(C4Game[] games)
+    {
+        for (int i = 0; i < games.length; i++)
+        {
+            if (games[i] != null)
+            {
+                games[i].shutdown();
+                games[i] = null;
+            }
+        }
+    }
+
+    /*
+     * one CSV line. games: the worker's games so far (see run()), whose bots play this one too, once they have
+     * forgotten the last one: building bots, each with tables of its own and maybe a thread pool, costs far more
+     * than most games
+     */
+    private String play(int gameIdx, GameArchive archive, C4Game[] games)
+    {
+        long    start  = System.nanoTime();
+        Random  random = new Random(this.seed + gameIdx);
+        boolean aFirst = gameIdx % 2 == 0;
+        long    seedA  = random.nextLong();
+        long    seedB  = random.nextLong();
+        int     order  = aFirst ? 0 : 1;
+        if (games[order] == null)
+        {
+            PlayerSpec specA = this.botA.withTableMegabytes(TABLE_MEGABYTES);
+            PlayerSpec specB = this.botB.withTableMegabytes(TABLE_MEGABYTES);
+            games[order] = aFirst ? new C4Game(this.rules, specA, specB) : new C4Game(this.rules, specB, specA);
+        }
+        C4Game game = games[order];
+        if (aFirst)
+        {
+            game.restart(seedA, seedB);
+        }
+        else
+        {
+            game.restart(seedB, seedA);
+        }
+
+        for (int i = 0; i < this.randomMoves && !game.isOver(); i++)
+        {
+            int col;
+            do
+            {
+                col = random.nextInt(game.getRules().getWidth());
+            } while (!game.canPlay(col));
+            game.play(col);
+        }
+        while (!game.isOver())
+        {
+            long moveStart = System.nanoTime();
+            int  col       = game.getCurrentPlayer().chooseMove();
+            this.latencies.record(System.nanoTime() - moveStart);
+            game.play(col);
+        }
+
+        int moves = game.getRules().getCells() - game.getTokensLeft();
+        this.totalMoves.addAndGet(moves);
+        if (archive != null)
+        {
+            try
+            {
+                archive.append(game);
+            } catch (IOException e)
+            {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        String winner;
+        if (game.getWinner() == null)
+        {
+            winner = "draw";
+            this.draws.incrementAndGet();
+        }
+        else if ((game.getWinner() == game.getPlayers()[0]) == aFirst)
+        {
+            winner = "A";
+            this.winsA.incrementAndGet();
+        }
+        else
+        {
+            winner = "B";
+            this.winsB.incrementAndGet();
+        }
+        return String.format(Locale.ROOT,
+                             "%d,%s,%s,%d,%.3f\n",
+                             gameIdx,
+                             aFirst ? "A" : "B",
+                             winner,
+                             moves,
+                             (System.nanoTime() - start) / 1e6);
+    }
+
+    String summary(double seconds)
+    {
+        int played = this.winsA.get() + this.winsB.get() + this.draws.get();
+        return String.format(Locale.ROOT,
+                             "{\n" +
+                             "  \"games\": %d,\n" +
+                             "  \"failed\": %d,\n" +
+                             "  \"winRateA\": %.4f,\n" +
+                             "  \"winRateB\": %.4f,\n" +
+                             "  \"drawRate\": %.4f,\n" +
+                             "  \"meanMoves\": %.2f,\n" +
+                             "  \"moveLatencyMicros\": {\"mean\": %.1f, \"p50\": %.1f, \"p90\": %.1f, \"p99\": %.1f, " +
+                             "\"max\": %.1f},\n" +
+                             "  \"seconds\": %.3f,\n" +
+                             "  \"gamesPerHour\": %.0f\n" +
+                             "}\n",
+                             played,
+                             this.failures.get(),
+                             ratio(this.winsA.get(), played),
+                             ratio(this.winsB.get(), played),
+                             ratio(this.draws.get(), played),
+                             ratio(this.totalMoves.get(), played),
+                             this.latencies.getMean() / 1e3,
+                             this.latencies.getPercentile(50) / 1e3,
+                             this.latencies.getPercentile(90) / 1e3,
+                             this.latencies.getPercentile(99) / 1e3,
+                             this.latencies.getMax() / 1e3,
+                             seconds,
+                             seconds > 0 ? played * 3600 / seconds : 0);
+    }
+
+    private static double ratio(long part, long whole)
+    {
+        return whole == 0 ? 0 : (double) part / whole;
+    }
+}
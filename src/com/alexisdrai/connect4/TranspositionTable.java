@@ -0,0 +1,292 @@
+package com.alexisdrai.connect4;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Objects;
+
+/*
+ * fixed-size cache of search results, keyed by Position.canonicalKey()
+ *
+ * entries live side by side in a single long[]: the full key xor-ed with its packed data, then that data,
+ * so a probe never allocates.
+ * the xor lets several threads share a table without locking: an entry torn by a concurrent write simply fails to
+ * match its key, and reads as a miss.
+ * a key is looked for in a bucket of BUCKET consecutive slots (open addressing), and when storing into a full bucket,
+ * the entry left over from an older search goes first, then the one searched the least deeply.
+ *
+ * data layout, from the lowest bit up:
+ *  score: 16 bits (signed)
+ *  depth:  8 bits
+ *  flag:   2 bits (never 0, so that 0 can stand for a miss)
+ *  move:   4 bits (column index, or 0xF if none)
+ *  age:    8 bits
+ *
+ * a table can be dumped to a file as it is (see dump()), and a later one warmed up from that file (see warmFrom()):
+ * the file is memory-mapped read-only and looked into whenever the table itself misses, and an entry found there
+ * is copied into the table, so that a process restarted with a dump searches about as fast as the one that wrote it,
+ * without reading the whole file first.
+ * dump layout (big endian): DUMP_MAGIC (int), DUMP_VERSION (int), number of slots (int), then the slots
+ * (key xor data, then data: longs)
+ */
+final class TranspositionTable
+{
+    static final long MISS  = 0L;
+    static final int  EXACT = 1;
+    static final int  LOWER = 2; // the real score is at least the stored one
+    static final int  UPPER = 3; // the real score is at most the stored one
+
+    private static final int BUCKET      = 4;
+    private static final int ENTRY_BYTES = 2 * Long.BYTES;
+    private static final int NO_MOVE     = 0xF;
+
+    static final int DUMP_MAGIC   = 0x43345454; // "C4TT"
+    static final int DUMP_VERSION = 1;
+
+    private static final int DUMP_HEADER_BYTES = 3 * Integer.BYTES;
+    private static final int DUMP_CHUNK_LONGS  = 1 << 17;
+    // slots per mapped segment of a dump: a mapping cannot go past 2 GB
+    private static final int SEGMENT_BITS      = 26;
+
+    private final long[] entries;
+    private final int    slotMask;
+
+    // advanced by a single owner (see Search.setAging()), read by every thread sharing the table
+    private volatile int age;
+
+    // the dump this table was warmed up from, in segments of 1 << SEGMENT_BITS slots, or null
+    private volatile LongBuffer[] warm;
+    private int                   warmMask;
+
+    TranspositionTable(int megabytes)
+    {
+        if (megabytes < 1)
+        {
+            throw new IllegalArgumentException("a transposition table needs at least 1 MB, got " + megabytes);
+        }
+        // largest power of two number of slots that fits in the budget
+        long slots = Long.highestOneBit(((long) megabytes << 20) / ENTRY_BYTES);
+        if (slots * 2 > Integer.MAX_VALUE - 8)
+        {
+            slots = Integer.highestOneBit((Integer.MAX_VALUE - 8) / 2);
+        }
+        this.entries = new long[(int) slots * 2];
+        this.slotMask = (int) slots - 1;
+        this.age = 0;
+    }
+
+    int getCapacity()
+    {
+        return this.slotMask + 1;
+    }
+
+    // to be called before each new root search, so that stale entries get replaced first.
+    // only by whoever owns the table: searches sharing it must not bump the age each on their own
+    void newSearch()
+    {
+        this.age = (this.age + 1) & 0xFF;
+    }
+
+    // forgets the dump the table was warmed up from, if any, too
+    void clear()
+    {
+        this.warm = null;
+        Arrays.fill(this.entries, 0L);
+        this.age = 0;
+    }
+
+    /*
+     * writes every slot to path, next to it first and then moved over it, so that a crash never leaves half a dump
+     * behind, and a process warmed up from the previous one keeps reading it (its mapping outlives the file's name).
+     * other threads may go on searching meanwhile: an entry they change while it is being written is torn
+     * in the dump, and reads as a miss there like it would here
+     */
+    void dump(Path path) throws IOException
+    {
+        Objects.requireNonNull(path);
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary,
+                                                    StandardOpenOption.CREATE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING,
+                                                    StandardOpenOption.WRITE))
+        {
+            ByteBuffer header = ByteBuffer.allocate(DUMP_HEADER_BYTES);
+            header.putInt(DUMP_MAGIC).putInt(DUMP_VERSION).putInt(this.getCapacity()).flip();
+            write(channel, header);
+            ByteBuffer chunk = ByteBuffer.allocate(DUMP_CHUNK_LONGS * Long.BYTES);
+            for (int from = 0; from < this.entries.length; from += DUMP_CHUNK_LONGS)
+            {
+                chunk.clear();
+                chunk.asLongBuffer().put(this.entries, from, Math.min(DUMP_CHUNK_LONGS, this.entries.length - from));
+                chunk.limit(Math.min(DUMP_CHUNK_LONGS, this.entries.length - from) * Long.BYTES);
+                write(channel, chunk);
+            }
+            channel.force(true);
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // looks into the dump at path whenever this table misses, until it is cleared (any size of dump will do)
+    void warmFrom(Path path) throws IOException
+    {
+        Objects.requireNonNull(path);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+        {
+            ByteBuffer header = ByteBuffer.allocate(DUMP_HEADER_BYTES);
+            while (header.hasRemaining() && channel.read(header) >= 0)
+            {
+                // reading until the header is complete or the file is over
+            }
+            header.flip();
+            if (header.remaining() < DUMP_HEADER_BYTES || header.getInt() != DUMP_MAGIC
+                || header.getInt() != DUMP_VERSION)
+            {
+                throw new IOException(path + " is not a version " + DUMP_VERSION + " transposition table dump");
+            }
+            int slots = header.getInt();
+            if (slots < 1 || Integer.bitCount(slots) != 1
+                || channel.size() != DUMP_HEADER_BYTES + (long) slots * ENTRY_BYTES)
+            {
+                throw new IOException(path + " is truncated or corrupted");
+            }
+            // the mappings stay valid after the channel is closed
+            LongBuffer[] segments = new LongBuffer[Math.max(1, slots >>> SEGMENT_BITS)];
+            long         bytes    = (long) Math.min(slots, 1 << SEGMENT_BITS) * ENTRY_BYTES;
+            for (int i = 0; i < segments.length; i++)
+            {
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, DUMP_HEADER_BYTES + i * bytes, bytes)
+                                     .asLongBuffer();
+            }
+            this.warmMask = slots - 1;
+            this.warm = segments;
+        }
+    }
+
+    // packed data stored for that key, or MISS
+    long probe(long key)
+    {
+        int first = this.index(key);
+        for (int i = 0; i < BUCKET; i++)
+        {
+            int slot = ((first + i) & this.slotMask) << 1;
+            long data = this.entries[slot + 1];
+            if ((this.entries[slot] ^ data) == key)
+            {
+                return data;
+            }
+        }
+        LongBuffer[] warm = this.warm;
+        return warm == null ? MISS : this.probeWarm(warm, key);
+    }
+
+    void store(long key, int depth, int score, int flag, int move)
+    {
+        int first  = this.index(key);
+        int victim = -1;
+        int worst  = Integer.MAX_VALUE;
+        for (int i = 0; i < BUCKET; i++)
+        {
+            int  slot = ((first + i) & this.slotMask) << 1;
+            long data = this.entries[slot + 1];
+            if ((this.entries[slot] ^ data) == key || data == MISS)
+            {
+                victim = slot;
+                break;
+            }
+            // entries from an older search are worth less than any entry from the current one
+            int worth = depth(data) + (age(data) == this.age ? 256 : 0);
+            if (worth < worst)
+            {
+                worst = worth;
+                victim = slot;
+            }
+        }
+        long data = pack(depth, score, flag, move, this.age);
+        this.entries[victim] = key ^ data;
+        this.entries[victim + 1] = data;
+    }
+
+    // looks for key in the dump the table was warmed up from, and keeps what it finds
+    private long probeWarm(LongBuffer[] warm, long key)
+    {
+        int first = mix(key) & this.warmMask;
+        for (int i = 0; i < BUCKET; i++)
+        {
+            int        slot    = (first + i) & this.warmMask;
+            LongBuffer segment = warm[slot >>> SEGMENT_BITS];
+            int        offset  = (slot & ((1 << SEGMENT_BITS) - 1)) << 1;
+            long       data    = segment.get(offset + 1);
+            if ((segment.get(offset) ^ data) == key && data != MISS)
+            {
+                this.store(key, depth(data), score(data), flag(data), move(data));
+                return data;
+            }
+        }
+        return MISS;
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer) throws IOException
+    {
+        while (buffer.hasRemaining())
+        {
+            channel.write(buffer);
+        }
+    }
+
+    static int score(long data)
+    {
+        return (short) data;
+    }
+
+    static int depth(long data)
+    {
+        return (int) (data >>> 16) & 0xFF;
+    }
+
+    static int flag(long data)
+    {
+        return (int) (data >>> 24) & 0x3;
+    }
+
+    // best column found for that position, or -1
+    static int move(long data)
+    {
+        int move = (int) (data >>> 26) & 0xF;
+        return move == NO_MOVE ? -1 : move;
+    }
+
+    private static int age(long data)
+    {
+        return (int) (data >>> 30) & 0xFF;
+    }
+
+    private static long pack(int depth, int score, int flag, int move, int age)
+    {
+        return (score & 0xFFFFL)
+               | (long) (depth & 0xFF) << 16
+               | (long) flag << 24
+               | (long) (move < 0 ? NO_MOVE : move) << 26
+               | (long) age << 30;
+    }
+
+    private int index(long key)
+    {
+        return mix(key) & this.slotMask;
+    }
+
+    // keys are very regular bit patterns, so they are mixed (Stafford variant 13) before picking a slot
+    private static int mix(long key)
+    {
+        long h = key;
+        h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+        h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+        h = h ^ (h >>> 31);
+        return (int) h;
+    }
+}